@@ -0,0 +1,140 @@
+package com.example.movieroulette;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of CacheWarmer against LocalTmdbServer, with a database of their own.
+ * The warmer sends its requests through a transport of its own, so the app keeps sending its
+ * requests to TMDb while they run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CacheWarmerTest {
+
+    private static final String TEST_DB_NAME = "CacheWarmerTest";
+
+    // Longest wait for the startup work of the app, which may be sending requests
+    private static final long STARTUP_TIMEOUT_MS = 120000;
+
+    private Context context;
+    private DB_Helper helper;
+    private LocalTmdbServer server;
+
+    // Id of the movie served and years of the filters, new on every run, so nothing is served
+    // from the caches left by earlier runs
+    private String movieId;
+    private int firstYear;
+    private int secondYear;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // Neither the startup work nor the job of the app may run on the database of the test
+        assertTrue(MovieRouletteApplication.AwaitStartup(STARTUP_TIMEOUT_MS));
+        CacheWarmingJob.Cancel(context);
+
+        context.deleteDatabase(TEST_DB_NAME);
+        helper = new DB_Helper(context, TEST_DB_NAME);
+        DB_Gate.getInstance().SetUp(helper.getWritableDatabase());
+
+        Random random = new Random();
+        movieId = String.valueOf(100000000 + random.nextInt(100000000));
+        firstYear = 1000 + random.nextInt(400);
+        secondYear = firstYear + 400;
+
+        server = new LocalTmdbServer();
+        server.Serve("/3/genre/movie/list", "{\"genres\":[{\"id\":28,\"name\":\"Action\"}]}");
+        server.Serve("/3/discover/movie", "{\"page\":1,\"total_pages\":1,\"total_results\":1,\"results\":[" +
+                "{\"id\":" + movieId + ",\"title\":\"Warm\",\"release_date\":\"2001-01-01\",\"popularity\":1.0,\"genre_ids\":[28]}]}");
+        server.Serve("/3/movie/" + movieId, "{\"id\":" + movieId + ",\"title\":\"Warm\",\"overview\":\"\"," +
+                "\"imdb_id\":\"tt0000001\",\"poster_path\":\"/" + movieId + ".png\",\"genres\":[{\"id\":28,\"name\":\"Action\"}]," +
+                "\"credits\":{\"cast\":[],\"crew\":[]}}");
+        server.Serve("/t/p/", Png());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.Close();
+
+        // The job is scheduled again only once the database of the app is back in place
+        assertTrue(DB_Gate.getInstance().RestoreAppDatabase());
+        helper.close();
+        context.deleteDatabase(TEST_DB_NAME);
+        CacheWarmingJob.Schedule(context);
+    }
+
+    @Test
+    public void ordersFiltersByUse() {
+        DB_Gate gate = DB_Gate.getInstance();
+        gate.RecordFilterUse(firstYear, "");
+        gate.RecordFilterUse(secondYear, "Action");
+        gate.RecordFilterUse(secondYear, "Action");
+
+        ArrayList<DB_Gate.FilterUse> filters = gate.GetTopFilters(CacheWarmer.MAX_FILTERS);
+        assertEquals(2, filters.size());
+        assertEquals(secondYear, filters.get(0).year);
+        assertEquals("Action", filters.get(0).genre);
+        assertEquals(2, filters.get(0).uses);
+        assertEquals(firstYear, filters.get(1).year);
+        assertEquals("", filters.get(1).genre);
+    }
+
+    @Test
+    public void warmsMostUsedFilters() {
+        DB_Gate.getInstance().RecordFilterUse(firstYear, "");
+        DB_Gate.getInstance().RecordFilterUse(secondYear, "");
+
+        CacheWarmer.Result result = new CacheWarmer(context, server.Transport()).Warm(Long.MAX_VALUE);
+        assertTrue(result.finished);
+        assertFalse(result.budgetExhausted);
+        assertTrue(result.genresRefreshed);
+        assertEquals(2, result.filters);
+        assertEquals(2, result.movies);
+        assertEquals(2, result.posters);
+        assertTrue(result.bytes > 0);
+
+        // The first spin finds the details in memory and the poster decoded
+        Movie movie = TMDB_Wrapper.PeekMovieInfo(movieId);
+        assertNotNull(movie);
+        assertNotNull(TMDB_Wrapper.PeekPoster(movie.getPosterPath()));
+    }
+
+    @Test
+    public void stopsAtByteBudget() {
+        DB_Gate.getInstance().RecordFilterUse(firstYear, "");
+        DB_Gate.getInstance().RecordFilterUse(secondYear, "");
+
+        // Whatever is received first spends the budget, at most the first search is run
+        CacheWarmer.Result result = new CacheWarmer(context, server.Transport()).Warm(1);
+        assertTrue(result.budgetExhausted);
+        assertFalse(result.finished);
+        assertTrue(result.filters <= 1);
+        assertEquals(0, result.movies);
+        assertNull(TMDB_Wrapper.PeekMovieInfo(movieId));
+    }
+
+    // Small poster, encoded like the ones of TMDb
+    private static byte[] Png() {
+        Bitmap bitmap = Bitmap.createBitmap(4, 6, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
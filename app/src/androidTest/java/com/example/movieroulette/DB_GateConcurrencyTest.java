@@ -0,0 +1,272 @@
+package com.example.movieroulette;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented stress test of DB_Gate used from many threads at once, with the database
+ * opened by DB_Helper like in the app.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DB_GateConcurrencyTest {
+
+    private static final String TEST_DB_NAME = "DB_GateConcurrencyTest";
+
+    // Longest wait for the startup work of the app, which may be refreshing the catalog
+    private static final long STARTUP_TIMEOUT_MS = 120000;
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    // Movies added by every writer, every fifth one is deleted again
+    private static final int MOVIES_PER_WRITER = 500;
+    // Ids of the imported movies start here, after the ranges of the writers
+    private static final int IMPORT_START = 100000;
+    private static final int IMPORT_BATCHES = 20;
+    private static final int IMPORT_BATCH_SIZE = 50;
+
+    private static final TMDB_Parser.IdFilter ACCEPT_ALL = new TMDB_Parser.IdFilter() {
+        @Override
+        public boolean IsDisqualified(String id) {
+            return false;
+        }
+    };
+
+    private Context context;
+    private DB_Helper helper;
+
+    @Before
+    public void openDatabase() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // The app sets up its own database and refreshes the catalog in the background at
+        // startup, which would otherwise replace or write into the test database
+        assertTrue(MovieRouletteApplication.AwaitStartup(STARTUP_TIMEOUT_MS));
+        context.deleteDatabase(TEST_DB_NAME);
+        helper = new DB_Helper(context, TEST_DB_NAME);
+        DB_Gate.getInstance().SetUp(helper.getWritableDatabase());
+    }
+
+    @After
+    public void deleteDatabase() {
+        // The rest of the process goes back to the database of the app before the test's is closed
+        assertTrue(DB_Gate.getInstance().RestoreAppDatabase());
+        helper.close();
+        context.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @Test
+    public void opensWithWriteAheadLogging() {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(DB_Helper.DB_VERSION, db.getVersion());
+
+        Cursor result = db.rawQuery("PRAGMA journal_mode;", null);
+        try {
+            assertTrue(result.moveToFirst());
+            assertEquals("wal", result.getString(0).toLowerCase());
+        }
+        finally {
+            result.close();
+        }
+    }
+
+    @Test
+    public void upgradesUnversionedDatabase() {
+        helper.close();
+        context.deleteDatabase(TEST_DB_NAME);
+
+        // Databases of older versions of the app were opened directly, with no schema version
+        SQLiteDatabase legacy = context.openOrCreateDatabase(TEST_DB_NAME, Context.MODE_PRIVATE, null);
+        legacy.execSQL("CREATE TABLE movies (id TEXT NOT NULL, title TEXT NOT NULL, PRIMARY KEY(id));");
+        legacy.execSQL("INSERT INTO movies(id, title) VALUES('603', 'The Matrix');");
+        legacy.close();
+
+        helper = new DB_Helper(context, TEST_DB_NAME);
+        DB_Gate gate = DB_Gate.getInstance();
+        gate.SetUp(helper.getWritableDatabase());
+        assertEquals(DB_Helper.DB_VERSION, helper.getWritableDatabase().getVersion());
+        assertTrue(gate.DoesMovieExist("603"));
+        assertEquals(0, gate.GetSearchCursor("discover", 0));
+    }
+
+    @Test
+    public void skipsStaleCatalogRanking() throws Exception {
+        DB_Gate gate = DB_Gate.getInstance();
+        gate.StoreCatalogPage(1, CatalogPage(300001, 50));
+        Thread.sleep(10);
+        long secondFetch = System.currentTimeMillis();
+        Thread.sleep(10);
+        gate.StoreCatalogPage(2, CatalogPage(300002, 10));
+
+        // The older snapshot ranks first, but its popularity can't be compared with the newer one
+        assertEquals("300001", gate.FindCatalogMovie(-1, 28, ACCEPT_ALL, 0));
+        assertNull(gate.FindCatalogMovie(-1, 28, ACCEPT_ALL, secondFetch));
+
+        // Once the older one is disqualified, the newer snapshot answers alone
+        assertEquals("300002", gate.FindCatalogMovie(-1, 28, new TMDB_Parser.IdFilter() {
+            @Override
+            public boolean IsDisqualified(String id) {
+                return id.equals("300001");
+            }
+        }, secondFetch));
+    }
+
+    @Test
+    public void staysConsistentUnderConcurrentUse() throws Exception {
+        final DB_Gate gate = DB_Gate.getInstance();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS + 2);
+        List<Future<?>> writers = new ArrayList<>();
+        List<Future<?>> readers = new ArrayList<>();
+
+        // Writers add and delete movies of their own range through the write queue
+        for (int w = 0; w < WRITERS; w++) {
+            final int first = w * MOVIES_PER_WRITER + 1;
+            writers.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int id = first; id < first + MOVIES_PER_WRITER; id++) {
+                        gate.AddMovie(String.valueOf(id), "Movie " + id);
+                        if((id - first) % 5 == 4)
+                            gate.DeleteMovie(String.valueOf(id));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        // The importer writes its batches in transactions of its own
+        writers.add(pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                start.await();
+                WatchHistoryImporter.Progress progress = new WatchHistoryImporter.Progress();
+                for (int b = 0; b < IMPORT_BATCHES; b++) {
+                    List<TMDB_Parser.DiscoverMovie> batch = new ArrayList<>();
+                    for (int i = 0; i < IMPORT_BATCH_SIZE; i++) {
+                        TMDB_Parser.DiscoverMovie movie = new TMDB_Parser.DiscoverMovie();
+                        movie.id = String.valueOf(IMPORT_START + b * IMPORT_BATCH_SIZE + i);
+                        movie.title = "Imported " + movie.id;
+                        batch.add(movie);
+                    }
+                    progress.rowsDone += IMPORT_BATCH_SIZE;
+                    progress.imported += IMPORT_BATCH_SIZE;
+                    assertTrue(gate.ImportMovies("stress.csv", batch, progress));
+                }
+                gate.FinishImport("stress.csv");
+                return null;
+            }
+        }));
+
+        // The catalog is refreshed while it is searched
+        writers.add(pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                start.await();
+                for (int page = 1; page <= 20; page++) {
+                    List<TMDB_Parser.DiscoverMovie> movies = new ArrayList<>();
+                    for (int i = 0; i < 20; i++) {
+                        TMDB_Parser.DiscoverMovie movie = new TMDB_Parser.DiscoverMovie();
+                        movie.id = String.valueOf(200000 + page * 20 + i);
+                        movie.title = "Catalog " + movie.id;
+                        movie.year = 2000 + i;
+                        movie.popularity = page * 20 + i;
+                        movie.genreIds = new int[]{28};
+                        movies.add(movie);
+                    }
+                    gate.StoreCatalogPage(page, movies);
+                }
+                return null;
+            }
+        }));
+
+        // Readers run every kind of query until the writers are done
+        for (int r = 0; r < READERS; r++) {
+            final String filterKey = "discover?reader=" + r;
+            readers.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    int page = 1;
+                    while (writing.get()) {
+                        for (int id = 1; id <= WRITERS * MOVIES_PER_WRITER; id += 97) {
+                            gate.DoesMovieExist(String.valueOf(id));
+                        }
+                        gate.DoesMovieExistInDatabase("tt0133093");
+                        gate.FindCatalogMovie(-1, 28, ACCEPT_ALL, 0);
+                        gate.GetCatalogPages();
+                        gate.StoreSearchCursor(filterKey, page++, System.currentTimeMillis());
+                        gate.GetSearchCursor(filterKey, 0);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        try {
+            // Rethrows the failures of the threads
+            for (Future<?> writer: writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            writing.set(false);
+            for (Future<?> reader: readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+            pool.shutdown();
+        }
+
+        // The in memory ids and the movie table agree once the queue is written
+        for (int w = 0; w < WRITERS; w++) {
+            int first = w * MOVIES_PER_WRITER + 1;
+            for (int id = first; id < first + MOVIES_PER_WRITER; id++) {
+                boolean expected = (id - first) % 5 != 4;
+                assertEquals(expected, gate.DoesMovieExist(String.valueOf(id)));
+                assertEquals(expected, gate.DoesMovieExistInDatabase(String.valueOf(id)));
+            }
+        }
+        for (int id = IMPORT_START; id < IMPORT_START + IMPORT_BATCHES * IMPORT_BATCH_SIZE; id++) {
+            assertTrue(gate.DoesMovieExist(String.valueOf(id)));
+            assertTrue(gate.DoesMovieExistInDatabase(String.valueOf(id)));
+        }
+        assertEquals(0, gate.GetImportProgress("stress.csv").rowsDone);
+        assertEquals(20, gate.GetCatalogPages().size());
+        assertEquals("200419", gate.FindCatalogMovie(-1, 28, ACCEPT_ALL, 0));
+    }
+
+    // Discover page holding a single action movie
+    private static List<TMDB_Parser.DiscoverMovie> CatalogPage(int id, double popularity) {
+        TMDB_Parser.DiscoverMovie movie = new TMDB_Parser.DiscoverMovie();
+        movie.id = String.valueOf(id);
+        movie.title = "Catalog " + id;
+        movie.year = 2001;
+        movie.popularity = popularity;
+        movie.genreIds = new int[]{28};
+        List<TMDB_Parser.DiscoverMovie> movies = new ArrayList<>();
+        movies.add(movie);
+        return movies;
+    }
+}
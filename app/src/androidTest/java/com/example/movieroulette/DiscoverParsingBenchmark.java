@@ -0,0 +1,131 @@
+package com.example.movieroulette;
+
+import android.os.Debug;
+import android.util.JsonReader;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark comparing the streaming discover page parser with the previous path,
+ * which read the response char by char into a String and built a JSONObject out of it.
+ * Latency and bytes allocated per page are written to logcat under the BENCHMARK tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiscoverParsingBenchmark {
+
+    private static final String TAG = "BENCHMARK";
+    private static final int ROUNDS = 500;
+
+    @Test
+    public void firstMovieEligible() throws Exception {
+        compare("first eligible", 1);
+    }
+
+    @Test
+    public void wholePageDisqualified() throws Exception {
+        compare("none eligible", Integer.MAX_VALUE);
+    }
+
+    private void compare(String scenario, final int firstEligibleId) throws Exception {
+        byte[] page = DiscoverPageFixture().getBytes(Charset.forName("UTF-8"));
+        TMDB_Parser.Parser<TMDB_Parser.DiscoverPage> parser = TMDB_Parser.DiscoverPage(new TMDB_Parser.IdFilter() {
+            @Override
+            public boolean IsDisqualified(String id) {
+                return Integer.parseInt(id) < firstEligibleId;
+            }
+        });
+
+        // Warming up both paths and checking that they agree
+        for (int i = 0; i < 50; i++) {
+            assertEquals(JsonObjectPath(page, firstEligibleId), StreamingPath(page, parser));
+        }
+
+        long allocatedBefore = BytesAllocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            JsonObjectPath(page, firstEligibleId);
+        }
+        long jsonObjectNanos = System.nanoTime() - start;
+        long jsonObjectBytes = BytesAllocated() - allocatedBefore;
+
+        allocatedBefore = BytesAllocated();
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            StreamingPath(page, parser);
+        }
+        long streamingNanos = System.nanoTime() - start;
+        long streamingBytes = BytesAllocated() - allocatedBefore;
+
+        Log.i(TAG, String.format("discover page (%d bytes, %s): JSONObject %dus %dB/page, streaming %dus %dB/page",
+                page.length, scenario,
+                jsonObjectNanos / ROUNDS / 1000, jsonObjectBytes / ROUNDS,
+                streamingNanos / ROUNDS / 1000, streamingBytes / ROUNDS));
+    }
+
+    // The previous path: whole response read into a String, parsed into a JSONObject and scanned
+    private static String JsonObjectPath(byte[] page, int firstEligibleId) throws IOException, JSONException {
+        StringBuilder body = new StringBuilder();
+        try(Reader rdr = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(page)))){
+            int c;
+            while((c = rdr.read()) != -1){
+                body.append((char) c);
+            }
+        }
+        JSONObject response = new JSONObject(body.toString());
+        JSONArray results = response.getJSONArray("results");
+        for (int i = 0; i < results.length(); i++) {
+            String id = results.getJSONObject(i).getString("id");
+            if(Integer.parseInt(id) >= firstEligibleId)
+                return id;
+        }
+        return null;
+    }
+
+    private static String StreamingPath(byte[] page, TMDB_Parser.Parser<TMDB_Parser.DiscoverPage> parser) throws IOException {
+        InputStream stream = new ByteArrayInputStream(page);
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, Charset.forName("UTF-8")));
+        return parser.Parse(reader).eligibleId;
+    }
+
+    private static long BytesAllocated(){
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    // Discover page shaped like the ones returned by TMDb, with 20 results
+    private static String DiscoverPageFixture(){
+        StringBuilder page = new StringBuilder("{\"page\":1,\"results\":[");
+        for (int i = 1; i <= 20; i++) {
+            if(i > 1)
+                page.append(',');
+            page.append("{\"popularity\":").append(500.5 - i)
+                    .append(",\"vote_count\":").append(1000 + i)
+                    .append(",\"video\":false,\"poster_path\":\"/poster").append(i).append(".jpg\"")
+                    .append(",\"id\":").append(i)
+                    .append(",\"adult\":false,\"backdrop_path\":\"/backdrop").append(i).append(".jpg\"")
+                    .append(",\"original_language\":\"en\",\"original_title\":\"Movie ").append(i).append('"')
+                    .append(",\"genre_ids\":[28,12,878],\"title\":\"Movie ").append(i).append('"')
+                    .append(",\"vote_average\":7.").append(i % 10)
+                    .append(",\"overview\":\"An overview long enough to look like the real ones, describing the plot of movie number ")
+                    .append(i).append(" in a couple of sentences without giving the ending away.\"")
+                    .append(",\"release_date\":\"2019-10-").append(10 + i % 20).append("\"}");
+        }
+        return page.append("],\"total_pages\":500,\"total_results\":10000}").toString();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.movieroulette;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of the callers of TMDB_Wrapper joining a request already in flight,
+ * against LocalTmdbServer.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestCoalescingTest {
+
+    // Longest wait for the startup work of the app, which may be sending requests
+    private static final long STARTUP_TIMEOUT_MS = 120000;
+
+    // Time given to the follower to join the leader's request
+    private static final long JOIN_DELAY_MS = 500;
+
+    private LocalTmdbServer server;
+    private TMDB_Wrapper tmdb;
+    private ExecutorService callers;
+
+    // Id of the requested movie, new on every run, so nothing is served from the caches
+    private String movieId;
+
+    // Holds the first request sent until it is released or its caller is cancelled
+    private final AtomicBoolean first = new AtomicBoolean(true);
+    private final CountDownLatch firstSending = new CountDownLatch(1);
+    private final CountDownLatch releaseFirst = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        assertTrue(MovieRouletteApplication.AwaitStartup(STARTUP_TIMEOUT_MS));
+
+        movieId = String.valueOf(100000000 + new Random().nextInt(100000000));
+        server = new LocalTmdbServer();
+        server.Serve("/3/movie/" + movieId, "{\"id\":" + movieId + ",\"title\":\"Joined\",\"overview\":\"\"," +
+                "\"imdb_id\":\"tt0000001\",\"genres\":[],\"credits\":{\"cast\":[],\"crew\":[]}}");
+
+        // Waits like the scheduler does while throttled, so cancelling the caller interrupts it
+        final HttpTransport local = server.Transport();
+        TMDB_Wrapper.SetTransport(new HttpTransport() {
+            @Override
+            public HttpResponse Execute(HttpRequest request) throws IOException {
+                if(first.compareAndSet(true, false)){
+                    firstSending.countDown();
+                    try {
+                        releaseFirst.await();
+                    }
+                    catch(InterruptedException e){
+                        throw new InterruptedIOException("Cancelled while throttled");
+                    }
+                }
+                return local.Execute(request);
+            }
+        });
+        tmdb = new TMDB_Wrapper(context);
+        callers = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        callers.shutdownNow();
+        TMDB_Wrapper.SetTransport(new RequestScheduler(new UrlConnectionTransport()));
+        server.Close();
+    }
+
+    @Test
+    public void followerSendsRequestOfCancelledLeader() throws Exception {
+        Future<Movie> leader = callers.submit(GetMovieInfo());
+        assertTrue(firstSending.await(5, TimeUnit.SECONDS));
+        Future<Movie> follower = callers.submit(GetMovieInfo());
+        Thread.sleep(JOIN_DELAY_MS);
+
+        // The leader gives up before its request reaches the server
+        leader.cancel(true);
+
+        Movie movie = follower.get(10, TimeUnit.SECONDS);
+        assertNotNull(movie);
+        assertEquals("Joined", movie.getTitle());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void followerSharesErrorResponse() throws Exception {
+        server.Serve("/3/movie/" + movieId, 404, "{\"status_code\":34}");
+        long coalescedBefore = TMDB_Wrapper.getCoalescedRequestCount();
+
+        Future<Movie> leader = callers.submit(GetMovieInfo());
+        assertTrue(firstSending.await(5, TimeUnit.SECONDS));
+        Future<Movie> follower = callers.submit(GetMovieInfo());
+        Thread.sleep(JOIN_DELAY_MS);
+        releaseFirst.countDown();
+
+        assertNull(leader.get(10, TimeUnit.SECONDS));
+        assertNull(follower.get(10, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(coalescedBefore + 1, TMDB_Wrapper.getCoalescedRequestCount());
+    }
+
+    private Callable<Movie> GetMovieInfo() {
+        return new Callable<Movie>() {
+            @Override
+            public Movie call() {
+                return tmdb.GetMovieInfo(movieId);
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.movieroulette;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark comparing the in memory seen id lookup of DB_Gate with querying the
+ * movie table, for databases of 1k, 10k and 100k seen movies.
+ * Results are written to logcat under the BENCHMARK tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SeenIdLookupBenchmark {
+
+    private static final String TAG = "BENCHMARK";
+    private static final String TEST_DB_NAME = "SeenIdLookupBenchmark";
+
+    // Amount of lookups timed for each database size, roughly one page scan for every 20
+    private static final int LOOKUPS = 20000;
+
+    private Context context;
+    private SQLiteDatabase db;
+
+    @Before
+    public void openDatabase() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB_NAME);
+        db = context.openOrCreateDatabase(TEST_DB_NAME, Context.MODE_PRIVATE, null);
+    }
+
+    @After
+    public void deleteDatabase() {
+        // The rest of the process goes back to the database of the app before this one is closed
+        DB_Gate.getInstance().RestoreAppDatabase();
+        db.close();
+        context.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @Test
+    public void lookup_1k() {
+        compareLookups(1000);
+    }
+
+    @Test
+    public void lookup_10k() {
+        compareLookups(10000);
+    }
+
+    @Test
+    public void lookup_100k() {
+        compareLookups(100000);
+    }
+
+    private void compareLookups(int seenMovies) {
+        // The database is new, so setting up creates an empty movie table
+        DB_Gate gate = DB_Gate.getInstance();
+        gate.SetUp(db);
+        fillMovieTable(seenMovies);
+        // Setting up again, so the seen ids are loaded like on app start
+        gate.SetUp(db);
+
+        // Half of the candidates are seen, as on a long history most of the top results are
+        String[] candidates = new String[LOOKUPS];
+        Random random = new Random(seenMovies);
+        for (int i = 0; i < LOOKUPS; i++) {
+            candidates[i] = String.valueOf(random.nextInt(seenMovies * 2) + 1);
+        }
+
+        // Warming up both paths
+        for (int i = 0; i < 1000; i++) {
+            gate.DoesMovieExist(candidates[i]);
+            gate.DoesMovieExistInDatabase(candidates[i]);
+        }
+
+        int memoryHits = 0;
+        long start = System.nanoTime();
+        for (String id: candidates) {
+            if(gate.DoesMovieExist(id))
+                memoryHits++;
+        }
+        long memoryNanos = System.nanoTime() - start;
+
+        int sqlHits = 0;
+        start = System.nanoTime();
+        for (String id: candidates) {
+            if(gate.DoesMovieExistInDatabase(id))
+                sqlHits++;
+        }
+        long sqlNanos = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("seen=%d lookups=%d memory=%dns/op sql=%dns/op speedup=%.1fx",
+                seenMovies, LOOKUPS, memoryNanos / LOOKUPS, sqlNanos / LOOKUPS,
+                (double) sqlNanos / Math.max(1, memoryNanos)));
+
+        // Both paths must agree on every candidate
+        assertEquals(sqlHits, memoryHits);
+    }
+
+    private void fillMovieTable(int seenMovies) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO movies(id, title) VALUES(?, ?);");
+        db.beginTransaction();
+        try {
+            for (int id = 1; id <= seenMovies; id++) {
+                insert.bindString(1, String.valueOf(id));
+                insert.bindString(2, "Movie " + id);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.movieroulette;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of the launch of MainActivity up to its first frame, with the process
+ * already running, so it measures the work of the activity itself. Cold starts, which include
+ * the process start and MovieRouletteApplication, are measured by benchmarks/startup.sh.
+ * Results are written to logcat under the BENCHMARK tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final String TAG = "BENCHMARK";
+
+    // Amount of launches timed, after a first untimed one
+    private static final int LAUNCHES = 10;
+
+    @Test
+    public void launchMainActivity() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Intent intent = new Intent(instrumentation.getTargetContext(), MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        // The first launch loads the classes and sets up the database
+        Launch(instrumentation, intent);
+
+        long[] launchMs = new long[LAUNCHES];
+        for (int i = 0; i < LAUNCHES; i++) {
+            launchMs[i] = Launch(instrumentation, intent);
+        }
+        Arrays.sort(launchMs);
+
+        Log.i(TAG, String.format("launches=%d min=%dms median=%dms max=%dms",
+                LAUNCHES, launchMs[0], launchMs[LAUNCHES / 2], launchMs[LAUNCHES - 1]));
+
+        // The database was set up in the background meanwhile
+        assertTrue(DB_Gate.getInstance().AwaitReady());
+    }
+
+    // Starts the activity, waits for it to be drawn and idle, then finishes it
+    private long Launch(Instrumentation instrumentation, Intent intent) {
+        long start = System.nanoTime();
+        final Activity activity = instrumentation.startActivitySync(intent);
+        instrumentation.waitForIdleSync();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.finish();
+            }
+        });
+        instrumentation.waitForIdleSync();
+        return elapsedMs;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.movieroulette;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Singleton pool of bitmaps that are no longer displayed, reused by PosterDecoder through
+ * BitmapFactory.Options.inBitmap so decoding a poster doesn't allocate a new pixel buffer.
+ * The pool is bounded by the total bytes of the bitmaps it holds, dropping the oldest first.
+ */
+public final class BitmapPool {
+
+    // Room for a handful of posters at the decoded size
+    private static final long MAX_BYTES = 4 * 1024 * 1024;
+
+    // Bitmaps of the pool, oldest first
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<>();
+    private long size = 0;
+
+    private static BitmapPool instance = null;
+
+    private BitmapPool(){
+        // Private Constructor to make singleton
+    }
+
+    public static synchronized BitmapPool getInstance(){
+        if(instance == null){
+            instance = new BitmapPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a bitmap to the pool. The caller must not use it afterwards.
+     * @param bitmap    Mutable bitmap that is no longer displayed
+     */
+    public synchronized void Put(Bitmap bitmap){
+        if(bitmap == null || !bitmap.isMutable() || bitmap.isRecycled())
+            return;
+        if(bitmap.getAllocationByteCount() > MAX_BYTES){
+            bitmap.recycle();
+            return;
+        }
+
+        bitmaps.addLast(bitmap);
+        size += bitmap.getAllocationByteCount();
+        while(size > MAX_BYTES){
+            Bitmap oldest = bitmaps.removeFirst();
+            size -= oldest.getAllocationByteCount();
+            oldest.recycle();
+        }
+    }
+
+    /**
+     * Takes out of the pool the smallest bitmap that can hold the decoded image.
+     * @param width     Width of the decoded image
+     * @param height    Height of the decoded image
+     * @param config    Pixel format of the decoded image
+     * @return          A bitmap to decode into or null if none fits
+     */
+    public synchronized Bitmap Get(int width, int height, Bitmap.Config config){
+        long needed = (long) width * height * BytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap bitmap: bitmaps) {
+            if(bitmap.getAllocationByteCount() >= needed
+                    && (best == null || bitmap.getAllocationByteCount() < best.getAllocationByteCount()))
+                best = bitmap;
+        }
+        if(best != null){
+            bitmaps.remove(best);
+            size -= best.getAllocationByteCount();
+        }
+        return best;
+    }
+
+    /**
+     * Recycles every bitmap of the pool, e.g. when the system is low on memory.
+     */
+    public synchronized void Clear(){
+        Iterator<Bitmap> iterator = bitmaps.iterator();
+        while(iterator.hasNext()){
+            iterator.next().recycle();
+            iterator.remove();
+        }
+        size = 0;
+    }
+
+    private static int BytesPerPixel(Bitmap.Config config){
+        return config == Bitmap.Config.RGB_565 ? 2 : 4;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.movieroulette;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+
+/**
+ * Warms the caches the first spin of the day reads, so it is answered without waiting on TMDb.
+ * The genres are refreshed, then for each of the filters used the most the search is run the
+ * way the spin runs it, which leaves the exhausted discover pages in the HTTP cache and moves the
+ * search cursor past them, and the details and poster of the movie found are loaded into the
+ * movie and poster caches.
+ * Everything goes through TMDB_Wrapper, so the requests are cached, coalesced and scheduled like
+ * the ones of the app. The run stops once the bytes it received reach the budget, counted on a
+ * transport of its own so the requests of the app made at the same time don't count.
+ */
+public final class CacheWarmer {
+
+    // Amount of filters warmed, the ones used the most
+    public static final int MAX_FILTERS = 3;
+
+    // Discover pages a search may read, so a single search can't spend much past the budget
+    public static final int MAX_SEARCH_PAGES = 5;
+
+    // Metrics of the runs
+    private static final Metrics.Histogram runDuration = Metrics.getInstance().Histogram("warmup.duration");
+    private static final Metrics.Histogram runBytes = Metrics.getInstance().Histogram("warmup.bytes");
+    private static final Metrics.Counter budgetStops = Metrics.getInstance().Counter("warmup.budget_exhausted");
+
+    private final CountingTransport counter;
+    private final TMDB_Wrapper tmdb;
+
+    /**
+     * @param context   Context used for creating the wrapper sending the requests
+     * @param transport Transport sending the requests, e.g. TMDB_Wrapper.getSharedTransport()
+     */
+    public CacheWarmer(Context context, HttpTransport transport){
+        this.counter = new CountingTransport(transport);
+        this.tmdb = new TMDB_Wrapper(context, counter);
+    }
+
+    /**
+     * Warms the caches until everything is warmed, the budget is spent or the thread is
+     * interrupted. The budget is checked between the steps, so a run goes past it by at most a
+     * search of MAX_SEARCH_PAGES pages or the details and poster of a movie.
+     * Must not be called from the UI thread.
+     * @param byteBudget    Bytes that may be received over the network during the run
+     * @return              Outcome of the run
+     */
+    public Result Warm(long byteBudget){
+        long start = Metrics.Start();
+        long startBytes = counter.getBytesRead();
+        Result result = new Result();
+        try {
+            // The searches skip the seen movies, so they wait for the database
+            if(!DB_Gate.getInstance().AwaitReady())
+                return result;
+
+            result.genresRefreshed = tmdb.GetMovieGenres() != null;
+
+            ArrayList<DB_Gate.FilterUse> filters = DB_Gate.getInstance().GetTopFilters(MAX_FILTERS);
+            for (DB_Gate.FilterUse filter: filters) {
+                if(!CanContinue(result, startBytes, byteBudget))
+                    return result;
+
+                String id = tmdb.GetPopularMovieID(filter.year, filter.genre, TMDB_Wrapper.PREFETCH_PAGES,
+                        null, MAX_SEARCH_PAGES);
+
+                // Details and poster, the way MovieDetails loads them, unless the search spent
+                // the budget
+                if(id != null && CanContinue(result, startBytes, byteBudget)){
+                    Movie movie = tmdb.GetMovieDetails(id);
+                    if(movie != null){
+                        result.movies++;
+                        if(movie.getPoster() != null)
+                            result.posters++;
+                    }
+                }
+                result.filters++;
+            }
+            result.finished = !result.budgetExhausted && !Thread.currentThread().isInterrupted();
+            return result;
+        }
+        finally {
+            result.bytes = counter.getBytesRead() - startBytes;
+            result.durationMs = (System.nanoTime() - start) / 1000000;
+            runDuration.RecordSince(start);
+            runBytes.Record(result.bytes);
+        }
+    }
+
+    // Checks that the run wasn't cancelled and that there is budget left
+    private boolean CanContinue(Result result, long startBytes, long byteBudget){
+        if(Thread.currentThread().isInterrupted())
+            return false;
+        if(counter.getBytesRead() - startBytes >= byteBudget){
+            if(!result.budgetExhausted)
+                budgetStops.Increment();
+            result.budgetExhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Result {
+        public boolean genresRefreshed = false;
+        // Filters whose search was run
+        public int filters = 0;
+        // Movies whose details were loaded, and the ones among them with a poster
+        public int movies = 0;
+        public int posters = 0;
+        // Bytes of the responses received during the run
+        public long bytes = 0;
+        public long durationMs = 0;
+        public boolean budgetExhausted = false;
+        // False if the run was stopped before warming every filter
+        public boolean finished = false;
+    }
+}
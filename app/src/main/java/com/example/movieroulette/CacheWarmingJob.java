@@ -0,0 +1,90 @@
+package com.example.movieroulette;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Periodic job running the CacheWarmer, so the first spin of the day finds its data cached.
+ * It only runs while the device is charging on an unmetered network (e.g. Wi-Fi overnight), so
+ * it costs the user neither battery nor data plan.
+ */
+public class CacheWarmingJob extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    // The job runs at most once per period, whenever the conditions are met within it
+    private static final long PERIOD_MS = 12 * 60 * 60 * 1000L;
+
+    // Bytes a run may receive, enough for the genres, a few discover pages and the posters
+    private static final long BYTE_BUDGET = 2 * 1024 * 1024;
+
+    // Run in progress, null if none is
+    private Future<CacheWarmer.Result> run = null;
+
+    /**
+     * Schedules the job unless it is already scheduled.
+     * Called in the background when the process starts, as the job is not kept across reboots.
+     * @param context   Context used for reaching the JobScheduler
+     */
+    public static void Schedule(Context context){
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if(scheduler == null || scheduler.getPendingJob(JOB_ID) != null)
+            return;
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, CacheWarmingJob.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .build();
+        if(scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS)
+            System.out.println("Could not schedule the cache warming job");
+    }
+
+    /**
+     * Cancels the job, stopping a run in progress. It is scheduled again by Schedule.
+     * @param context   Context used for reaching the JobScheduler
+     */
+    public static void Cancel(Context context){
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if(scheduler != null)
+            scheduler.cancel(JOB_ID);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CacheWarmer warmer = new CacheWarmer(this, TMDB_Wrapper.getSharedTransport());
+        run = TaskRunner.getInstance().Execute(new Callable<CacheWarmer.Result>() {
+            @Override
+            public CacheWarmer.Result call() {
+                return warmer.Warm(BYTE_BUDGET);
+            }
+        }, new TaskRunner.Callback<CacheWarmer.Result>() {
+            @Override
+            public void onResult(CacheWarmer.Result result) {
+                run = null;
+                // A run cut short by the budget waits for the next period, as retrying right
+                // away would spend the budget again
+                jobFinished(params, false);
+            }
+        });
+        // The job keeps running until jobFinished is called
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The conditions are no longer met, e.g. the device was unplugged
+        // The callback is not called for a cancelled run, and the job is run again later
+        if(run != null)
+            run.cancel(true);
+        run = null;
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.movieroulette;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HttpTransport counting the bytes of the response bodies read through it, so the traffic of a
+ * single user of the network (e.g. a CacheWarmer run) can be told apart from the rest of the app.
+ * The bodies are counted decompressed, so the count is an upper bound of the bytes received.
+ */
+public final class CountingTransport implements HttpTransport {
+
+    private final HttpTransport delegate;
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * @param delegate  Transport sending the requests
+     */
+    public CountingTransport(HttpTransport delegate){
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return  Bytes of the response bodies read through this transport so far
+     */
+    public long getBytesRead() { return bytesRead.get(); }
+
+    @Override
+    public HttpResponse Execute(HttpRequest request) throws IOException {
+        final HttpResponse response = delegate.Execute(request);
+        return new HttpResponse(response.getCode(), response.getHeaders(), new CountingInputStream(response.getBody())) {
+            // Closing drains and closes the counting body, which closes the body of the delegate
+            @Override
+            protected void Abort() {
+                response.Abort();
+            }
+        };
+    }
+
+    /**
+     * Stream adding the bytes read through it to the bytes read by the transport.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1)
+                bytesRead.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0)
+                bytesRead.addAndGet(read);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.movieroulette;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Streaming reader of CSV records (RFC 4180), as written by the IMDb and Letterboxd exports.
+ * Records are read one at a time, so only the current record is kept in memory whatever the
+ * size of the file. Quoted fields may contain commas, escaped quotes ("") and line breaks.
+ * The class only depends on plain Java, so it can be tested off the device.
+ */
+public final class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    // Builder of the field being read, reused across fields
+    private final StringBuilder field = new StringBuilder();
+
+    /**
+     * @param in    Reader of the CSV text, buffered by the CsvReader itself
+     */
+    public CsvReader(Reader in){
+        this.in = in;
+    }
+
+    /**
+     * Reads the next record.
+     * @return  The fields of the record or null at the end of the text
+     * @throws IOException  If the text could not be read
+     */
+    public ArrayList<String> ReadRecord() throws IOException {
+        int c = Read();
+        if(c == -1)
+            return null;
+
+        ArrayList<String> record = new ArrayList<>();
+        field.setLength(0);
+        boolean quoted = false;
+        while(true){
+            if(quoted){
+                if(c == -1)
+                    throw new IOException("Unterminated quoted field");
+                if(c == '"'){
+                    int next = Read();
+                    if(next == '"'){
+                        field.append('"');
+                    }
+                    else{
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                }
+                else{
+                    field.append((char) c);
+                }
+            }
+            else if(c == '"' && field.length() == 0){
+                quoted = true;
+            }
+            else if(c == ','){
+                record.add(field.toString());
+                field.setLength(0);
+            }
+            else if(c == '\n' || c == -1){
+                break;
+            }
+            else if(c == '\r'){
+                int next = Read();
+                if(next != '\n' && next != -1)
+                    position--;
+                break;
+            }
+            else{
+                field.append((char) c);
+            }
+            c = Read();
+        }
+        record.add(field.toString());
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int Read() throws IOException {
+        if(position == limit){
+            limit = in.read(buffer, 0, BUFFER_SIZE);
+            position = 0;
+            if(limit <= 0){
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
@@ -1,20 +1,70 @@
 package com.example.movieroulette;
 
+import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Singleton class containing the necessary methods to make calls to the SQLite database
+ * Safe to use from any thread: the database is opened by DB_Helper with write-ahead logging,
+ * so queries run alongside the writes of the write queue, and the in memory state is either
+ * guarded by a lock or volatile.
  */
 public final class DB_Gate {
 
     private static final String DB_NAME = "MovieRoulette";
     public static String getDbName() { return DB_NAME; }
 
-    private static SQLiteDatabase db;
+    // Replaced only by SetUp, published to the other threads by setupFlag
+    private static volatile SQLiteDatabase db;
+
+    // Opens the database, kept for as long as the process lives
+    private static DB_Helper helper = null;
+
+    // Queue writing the changes of the movie table in the background
+    private static volatile DB_WriteQueue writeQueue;
+
+    // In memory copy of the ids in the movie table, used for checking ids without querying the db
+    private static final IntHashSet seenIds = new IntHashSet();
+
+    // Amount of times the database was cleared, guarded by seenIds
+    private static int clearCount = 0;
+
+    // Returned by ParseId for ids that can't be kept in the in memory set
+    private static final int INVALID_ID = -1;
+
+    // Latency of the seen id checks
+    private static final Metrics.Histogram existsLatency = Metrics.getInstance().Histogram("db.does_movie_exist");
 
     // Flag used for checking if the db has been setup on runtime before doing other operations
-    private static boolean setupFlag = false;
+    // Set once everything is in place, as the set up runs in the background
+    private static volatile boolean setupFlag = false;
+
+    // Changes made by the user before the set up was done, applied in order by SetUp
+    // Guarded by the instance, like SetUp
+    private static final ArrayList<Runnable> beforeSetUp = new ArrayList<>();
+
+    // Set up of the database started by Open, null if the database was set up directly
+    private static Future<Boolean> opening = null;
+
+    // Time of the last deletion or clearing, the search cursors recorded before it are ignored
+    // even if their rows are still waiting to be deleted by the write queue
+    private static volatile long cursorsInvalidatedAt = 0;
+
+    // Longest wait of a background task for the database to be set up
+    private static final long READY_TIMEOUT_MS = 10000;
 
     private static DB_Gate instance = null;
 
@@ -22,75 +72,719 @@ public final class DB_Gate {
         // Private Constructor to make singleton
     }
 
-    public static DB_Gate getInstance(){
+    public static synchronized DB_Gate getInstance(){
         if(instance == null){
             instance = new DB_Gate();
-            return instance;
-        }
-        else{
-            return instance;
         }
+        return instance;
     }
 
     /**
      * Sets up the database by assigning the reference of an open database and creating the
      * necessary tables.
+     * Replacing the database of a running app is only meant for tests and benchmarks.
      * @param openedDatabase    Needs an already open SQLiteDatabase reference
      */
-    public void SetUp(SQLiteDatabase openedDatabase){
-        setupFlag = true;
+    public synchronized void SetUp(SQLiteDatabase openedDatabase){
+        // The changes queued for the previous database are written to it first, the ones that
+        // still fail are reported by the queue and left out of the ids loaded below
+        if(writeQueue != null)
+            writeQueue.Close();
+
         db = openedDatabase;
-        CreateMovieTable();
+        CreateTables(db);
+        LoadSeenIds();
+        writeQueue = new DB_WriteQueue(db, new Runnable() {
+            @Override
+            public void run() {
+                DropAndCreateTables();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // A deleted movie can be suggested again, so the pages skipped may hold it
+                db.execSQL("DELETE FROM search_cursors;");
+            }
+        });
+        setupFlag = true;
+
+        // The changes the user made while the database was being opened
+        for (Runnable change: beforeSetUp) {
+            change.run();
+        }
+        beforeSetUp.clear();
     }
 
     /**
-     * Creates the movie table if it doesn't exist already.
-     * The table has the TMDb movie id as a PK.
+     * Sets up the database opened by Open again, after a test or benchmark replaced it through
+     * SetUp, so the rest of the process doesn't keep using the replaced one.
+     * Must not be called from the UI thread.
+     * @return  True if the database of the app is set up again
+     */
+    public synchronized boolean RestoreAppDatabase(){
+        if(helper == null)
+            return false;
+
+        try {
+            SetUp(helper.getWritableDatabase());
+            return true;
+        }
+        catch(SQLiteException e){
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Keeps a change made before the set up is done, so it is applied once the database is ready
+     * instead of being lost. The UI thread never waits for the database this way.
+     * @param change    Change applied by SetUp
+     * @return          True if the change was kept, false if the database is already set up
      */
-    private void CreateMovieTable(){
+    private synchronized boolean DeferUntilSetUp(Runnable change){
+        if(setupFlag)
+            return false;
+        beforeSetUp.add(change);
+        return true;
+    }
+
+    /**
+     * Opens the database and sets it up in the background, so the first frame of the app never
+     * waits on the disk. Until the set up is done the database is treated as empty, so the
+     * tasks that need the seen movies wait for it with AwaitReady.
+     * Later calls return the set up already started.
+     * @param context   Context used for opening the database
+     * @return          Future of the set up, completed with true once the database is ready
+     */
+    public synchronized Future<Boolean> Open(Context context){
+        if(opening == null){
+            final Context appContext = context.getApplicationContext();
+            opening = TaskRunner.getInstance().Execute(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        // Opening the database through the helper, creating or upgrading its tables
+                        helper = new DB_Helper(appContext, DB_NAME);
+                        SetUp(helper.getWritableDatabase());
+                        return true;
+                    }
+                    catch(SQLiteException e){
+                        System.out.println(e.getMessage());
+                        return false;
+                    }
+                }
+            }, null);
+        }
+        return opening;
+    }
+
+    /**
+     * Waits for the set up started by Open.
+     * Must not be called from the UI thread.
+     * @return  True if the database is ready
+     */
+    public boolean AwaitReady(){
+        Future<Boolean> setUp;
+        synchronized (this) {
+            setUp = opening;
+        }
+        if(setUp == null || setupFlag)
+            return setupFlag;
+
+        try {
+            return Boolean.TRUE.equals(setUp.get(READY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+        catch(InterruptedException e){
+            // The waiting task was cancelled
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch(ExecutionException | TimeoutException | CancellationException e){
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Requests the changes still queued to be written to the database in the background.
+     * Called from the activities' lifecycle hooks, so no change is lost if the process is killed.
+     */
+    public void Flush(){
         if(!setupFlag)
             return;
 
+        writeQueue.Flush();
+    }
+
+    /**
+     * Creates the tables that don't exist already. Called by DB_Helper when the database is
+     * created and by SetUp for databases opened directly.
+     * @param database  Open database
+     */
+    static void CreateTables(SQLiteDatabase database){
+        CreateMovieTable(database);
+        CreateGenreTable(database);
+        CreateCatalogTables(database);
+        CreateCursorTable(database);
+        CreateImportTable(database);
+        CreateFilterUsageTable(database);
+    }
+
+    /**
+     * Loads the ids of the movie table into the in memory set.
+     */
+    private void LoadSeenIds(){
+        Cursor result = db.rawQuery("SELECT id FROM movies;", null);
+        try {
+            synchronized (seenIds) {
+                seenIds.clear();
+                while (result.moveToNext()) {
+                    int id = ParseId(result.getString(0));
+                    if(id != INVALID_ID)
+                        seenIds.add(id);
+                }
+            }
+        }
+        finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Creates the movie table if it doesn't exist already.
+     * The table has the TMDb movie id as a PK.
+     */
+    private static void CreateMovieTable(SQLiteDatabase database){
         String query = "CREATE TABLE IF NOT EXISTS movies (" +
                             "id TEXT NOT NULL," +
                             "title TEXT NOT NULL," +
                             "PRIMARY KEY(id));";
 
-        db.execSQL(query);
+        database.execSQL(query);
     }
 
     /**
-     * Deletes row from the movie table using the TMDb id.
-     * @param id    TMDb id of the movie for deletion
+     * Creates the genre table if it doesn't exist already.
+     * The table keeps the genres of TMDb along with the time they were received.
+     */
+    private static void CreateGenreTable(SQLiteDatabase database){
+        String query = "CREATE TABLE IF NOT EXISTS genres (" +
+                            "id INTEGER NOT NULL," +
+                            "name TEXT NOT NULL," +
+                            "updated_at INTEGER NOT NULL," +
+                            "PRIMARY KEY(id));";
+
+        database.execSQL(query);
+    }
+
+    /**
+     * Reads the stored genres. Must not be called from the UI thread.
+     * @return  The genres, dated by the oldest row, or null if none are stored
+     */
+    public GenreRegistry.Genres LoadGenres(){
+        if(!setupFlag)
+            return null;
+
+        HashMap<String, Integer> genreMap = new HashMap<>();
+        long updatedAt = Long.MAX_VALUE;
+        Cursor result = db.rawQuery("SELECT id, name, updated_at FROM genres;", null);
+        try {
+            while (result.moveToNext()) {
+                genreMap.put(result.getString(1), result.getInt(0));
+                updatedAt = Math.min(updatedAt, result.getLong(2));
+            }
+        }
+        finally {
+            result.close();
+        }
+
+        if(genreMap.isEmpty())
+            return null;
+        return new GenreRegistry.Genres(genreMap, updatedAt);
+    }
+
+    /**
+     * Replaces the stored genres in a single transaction. Must not be called from the UI thread.
+     * @param genres    Genres received from TMDb
      */
-    public void DeleteMovie(String id){
+    public void StoreGenres(GenreRegistry.Genres genres){
         if(!setupFlag)
             return;
 
-        String query = "DELETE FROM movies " +
-                        "WHERE id='" + id + "';";
+        SQLiteStatement insert = db.compileStatement("INSERT INTO genres(id, name, updated_at) VALUES(?, ?, ?);");
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL("DELETE FROM genres;");
+            for (int i = 0; i < genres.size(); i++) {
+                insert.bindLong(1, genres.getId(i));
+                insert.bindString(2, genres.getName(i));
+                insert.bindLong(3, genres.getUpdatedAt());
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        }
+        catch(RuntimeException e){
+            // Keeping the old genres, the new ones are still used until the process ends
+            System.out.println(e.getMessage());
+        }
+        finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Creates the catalog tables if they don't exist already.
+     * The catalog mirrors the most popular movies of TMDb's discover endpoint, so searches can
+     * be answered locally. The genres of the movies are kept in their own table, keyed by genre
+     * first so it doubles as the genre index, and every mirrored discover page is dated in
+     * catalog_pages so stale pages are refreshed one by one.
+     */
+    private static void CreateCatalogTables(SQLiteDatabase database){
+        database.execSQL("CREATE TABLE IF NOT EXISTS catalog (" +
+                        "id TEXT NOT NULL," +
+                        "title TEXT NOT NULL," +
+                        "year INTEGER NOT NULL," +
+                        "popularity REAL NOT NULL," +
+                        "updated_at INTEGER NOT NULL," +
+                        "PRIMARY KEY(id));");
+        database.execSQL("CREATE INDEX IF NOT EXISTS catalog_year_popularity ON catalog(year, popularity);");
+        database.execSQL("CREATE INDEX IF NOT EXISTS catalog_popularity ON catalog(popularity);");
+        database.execSQL("CREATE TABLE IF NOT EXISTS catalog_genres (" +
+                        "genre_id INTEGER NOT NULL," +
+                        "movie_id TEXT NOT NULL," +
+                        "PRIMARY KEY(genre_id, movie_id));");
+        database.execSQL("CREATE TABLE IF NOT EXISTS catalog_pages (" +
+                        "page INTEGER NOT NULL," +
+                        "fetched_at INTEGER NOT NULL," +
+                        "PRIMARY KEY(page));");
+    }
 
-        db.execSQL(query);
+    /**
+     * Returns the time every mirrored discover page was fetched.
+     * Must not be called from the UI thread.
+     * @return  Fetch times by page number
+     */
+    public HashMap<Integer, Long> GetCatalogPages(){
+        HashMap<Integer, Long> pages = new HashMap<>();
+        if(!setupFlag)
+            return pages;
+
+        Cursor result = db.rawQuery("SELECT page, fetched_at FROM catalog_pages;", null);
+        try {
+            while (result.moveToNext()) {
+                pages.put(result.getInt(0), result.getLong(1));
+            }
+        }
+        finally {
+            result.close();
+        }
+        return pages;
+    }
+
+    /**
+     * Stores the movies of a discover page in the catalog, replacing the ones already stored,
+     * in a single transaction. Must not be called from the UI thread.
+     * @param page      Number of the discover page
+     * @param movies    Movies of the page
+     */
+    public void StoreCatalogPage(int page, List<TMDB_Parser.DiscoverMovie> movies){
+        if(!setupFlag)
+            return;
+
+        long now = System.currentTimeMillis();
+        SQLiteStatement insertMovie = db.compileStatement(
+                "INSERT OR REPLACE INTO catalog(id, title, year, popularity, updated_at) VALUES(?, ?, ?, ?, ?);");
+        SQLiteStatement deleteGenres = db.compileStatement("DELETE FROM catalog_genres WHERE movie_id=?;");
+        SQLiteStatement insertGenre = db.compileStatement(
+                "INSERT OR IGNORE INTO catalog_genres(genre_id, movie_id) VALUES(?, ?);");
+        SQLiteStatement insertPage = db.compileStatement(
+                "INSERT OR REPLACE INTO catalog_pages(page, fetched_at) VALUES(?, ?);");
+        db.beginTransactionNonExclusive();
+        try {
+            for (TMDB_Parser.DiscoverMovie movie: movies) {
+                insertMovie.bindString(1, movie.id);
+                insertMovie.bindString(2, movie.title);
+                insertMovie.bindLong(3, movie.year);
+                insertMovie.bindDouble(4, movie.popularity);
+                insertMovie.bindLong(5, now);
+                insertMovie.executeInsert();
+
+                deleteGenres.bindString(1, movie.id);
+                deleteGenres.executeUpdateDelete();
+                for (int genreId: movie.genreIds) {
+                    insertGenre.bindLong(1, genreId);
+                    insertGenre.bindString(2, movie.id);
+                    insertGenre.executeInsert();
+                }
+            }
+            insertPage.bindLong(1, page);
+            insertPage.bindLong(2, now);
+            insertPage.executeInsert();
+            db.setTransactionSuccessful();
+        }
+        catch(RuntimeException e){
+            System.out.println(e.getMessage());
+        }
+        finally {
+            db.endTransaction();
+            insertMovie.close();
+            deleteGenres.close();
+            insertGenre.close();
+            insertPage.close();
+        }
+    }
+
+    /**
+     * Removes the movies of the catalog that haven't been seen in a discover page for a while,
+     * i.e. the ones that dropped out of the mirrored pages. Must not be called from the UI thread.
+     * @param updatedBefore Movies updated before this time are removed
+     */
+    public void PruneCatalog(long updatedBefore){
+        if(!setupFlag)
+            return;
+
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL("DELETE FROM catalog WHERE updated_at < ?;", new Object[]{updatedBefore});
+            db.execSQL("DELETE FROM catalog_genres WHERE movie_id NOT IN (SELECT id FROM catalog);");
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Creates the search cursor table if it doesn't exist already.
+     * For every discover search, keyed by its normalized URL, the table keeps the last page of
+     * the results found to hold only movies of the movie table, so the next search of the same
+     * filters starts after it instead of at page 1.
+     */
+    private static void CreateCursorTable(SQLiteDatabase database){
+        String query = "CREATE TABLE IF NOT EXISTS search_cursors (" +
+                            "filter_key TEXT NOT NULL," +
+                            "exhausted_page INTEGER NOT NULL," +
+                            "recorded_at INTEGER NOT NULL," +
+                            "PRIMARY KEY(filter_key));";
+
+        database.execSQL(query);
+    }
+
+    /**
+     * Returns the last page of a search found to hold only movies of the movie table.
+     * Must not be called from the UI thread.
+     * @param filterKey     Normalized URL of the search, without the page
+     * @param recordedAfter Cursors recorded before this time are stale and ignored
+     * @return              The page or 0 if the search has to start at the first page
+     */
+    public int GetSearchCursor(String filterKey, long recordedAfter){
+        if(!setupFlag)
+            return 0;
+
+        Cursor result = db.rawQuery("SELECT exhausted_page FROM search_cursors WHERE filter_key=? AND recorded_at>?;",
+                new String[]{filterKey, String.valueOf(Math.max(recordedAfter, cursorsInvalidatedAt))});
+        try {
+            return result.moveToFirst() ? result.getInt(0) : 0;
+        }
+        finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Stores the last page of a search found to hold only movies of the movie table.
+     * Nothing is stored if a movie was deleted or the database was cleared during the search,
+     * as the pages it skipped may no longer be exhausted. Must not be called from the UI thread.
+     * @param filterKey     Normalized URL of the search, without the page
+     * @param page          The last exhausted page
+     * @param startedAt     Time the search started, recorded as the time of the cursor
+     */
+    public void StoreSearchCursor(String filterKey, int page, long startedAt){
+        if(!setupFlag || startedAt <= cursorsInvalidatedAt)
+            return;
+
+        try {
+            db.execSQL("INSERT OR REPLACE INTO search_cursors(filter_key, exhausted_page, recorded_at) VALUES(?, ?, ?);",
+                    new Object[]{filterKey, page, startedAt});
+        }
+        catch(SQLiteException e){
+            // The search only starts at the first page again
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the import table if it doesn't exist already.
+     * The table keeps the progress of the unfinished imports of watch history files, keyed by
+     * the file, so an interrupted import resumes after the last rows written.
+     */
+    private static void CreateImportTable(SQLiteDatabase database){
+        String query = "CREATE TABLE IF NOT EXISTS imports (" +
+                            "source TEXT NOT NULL," +
+                            "rows_done INTEGER NOT NULL," +
+                            "imported INTEGER NOT NULL," +
+                            "unmatched INTEGER NOT NULL," +
+                            "PRIMARY KEY(source));";
+
+        database.execSQL(query);
+    }
+
+    /**
+     * Returns the progress of an unfinished import. Must not be called from the UI thread.
+     * @param source    Key of the imported file
+     * @return          The progress, empty if the import hasn't started
+     */
+    public WatchHistoryImporter.Progress GetImportProgress(String source){
+        WatchHistoryImporter.Progress progress = new WatchHistoryImporter.Progress();
+        if(!setupFlag)
+            return progress;
+
+        Cursor result = db.rawQuery("SELECT rows_done, imported, unmatched FROM imports WHERE source=?;",
+                new String[]{source});
+        try {
+            if(result.moveToFirst()){
+                progress.rowsDone = result.getInt(0);
+                progress.imported = result.getInt(1);
+                progress.unmatched = result.getInt(2);
+            }
+        }
+        finally {
+            result.close();
+        }
+        return progress;
+    }
+
+    /**
+     * Adds a batch of imported movies to the movie table along with the progress of the import,
+     * in a single transaction with a compiled statement, so the progress always matches the
+     * movies written. Movies already in the table are kept as they are.
+     * The queued changes are written first, so the batch is ordered after them, and the batch
+     * isn't written if they fail.
+     * The batch is dropped if the database is cleared while it is written, as the clearing may
+     * already have been committed. Must not be called from the UI thread.
+     * @param source    Key of the imported file
+     * @param movies    Movies of the batch, with their TMDb ids and titles
+     * @param progress  Progress of the import including the batch
+     * @return          True if the batch was written
+     */
+    public boolean ImportMovies(String source, List<TMDB_Parser.DiscoverMovie> movies,
+                                WatchHistoryImporter.Progress progress){
+        if(!setupFlag)
+            return false;
+
+        int clearsBefore;
+        synchronized (seenIds) {
+            clearsBefore = clearCount;
+        }
+        // The batch is written after the queued changes, so it waits for their retry
+        if(!writeQueue.FlushAndWait())
+            return false;
+
+        SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO movies(id, title) VALUES(?, ?);");
+        db.beginTransactionNonExclusive();
+        try {
+            for (TMDB_Parser.DiscoverMovie movie: movies) {
+                insert.bindString(1, movie.id);
+                insert.bindString(2, movie.title);
+                insert.executeInsert();
+            }
+            db.execSQL("INSERT OR REPLACE INTO imports(source, rows_done, imported, unmatched) VALUES(?, ?, ?, ?);",
+                    new Object[]{source, progress.rowsDone, progress.imported, progress.unmatched});
+
+            // The transaction holds the write lock, so a clearing can't be committed until it
+            // ends; the ids are added before the commit, so a clearing requested after this
+            // check removes both the ids and the rows
+            synchronized (seenIds) {
+                if(clearCount != clearsBefore)
+                    return false;
+                for (TMDB_Parser.DiscoverMovie movie: movies) {
+                    int parsed = ParseId(movie.id);
+                    if(parsed != INVALID_ID)
+                        seenIds.add(parsed);
+                }
+            }
+            db.setTransactionSuccessful();
+        }
+        catch(RuntimeException e){
+            System.out.println(e.getMessage());
+            return false;
+        }
+        finally {
+            db.endTransaction();
+            insert.close();
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the progress of a finished import. Must not be called from the UI thread.
+     * @param source    Key of the imported file
+     */
+    public void FinishImport(String source){
+        if(!setupFlag)
+            return;
+
+        db.execSQL("DELETE FROM imports WHERE source=?;", new Object[]{source});
+    }
+
+    /**
+     * Creates the filter usage table if it doesn't exist already.
+     * The table counts the searches made with every combination of filters, so the caches of
+     * the ones used the most can be warmed in the background.
+     */
+    private static void CreateFilterUsageTable(SQLiteDatabase database){
+        String query = "CREATE TABLE IF NOT EXISTS filter_usage (" +
+                            "year INTEGER NOT NULL," +
+                            "genre TEXT NOT NULL," +
+                            "uses INTEGER NOT NULL," +
+                            "last_used INTEGER NOT NULL," +
+                            "PRIMARY KEY(year, genre));";
+
+        database.execSQL(query);
+    }
+
+    /**
+     * Counts a search made with the filters. The count is written in the background by the
+     * write queue, in one transaction with the rest of the pending changes.
+     * @param year      Year filter of the search (-1 if N/A)
+     * @param genre     Genre filter of the search ("" if N/A)
+     */
+    public void RecordFilterUse(int year, String genre){
+        if(!setupFlag)
+            return;
+
+        writeQueue.RecordFilterUse(year, genre);
+    }
+
+    /**
+     * Returns the filters used the most, the most recently used first among equal counts.
+     * Must not be called from the UI thread.
+     * @param limit     Maximum amount of filters returned
+     * @return          The filters, most used first
+     */
+    public ArrayList<FilterUse> GetTopFilters(int limit){
+        ArrayList<FilterUse> filters = new ArrayList<>();
+        if(!setupFlag)
+            return filters;
+
+        // The queued uses are counted too
+        writeQueue.FlushAndWait();
+
+        Cursor result = db.rawQuery("SELECT year, genre, uses FROM filter_usage ORDER BY uses DESC, last_used DESC LIMIT ?;",
+                new String[]{String.valueOf(limit)});
+        try {
+            while (result.moveToNext()) {
+                FilterUse filter = new FilterUse();
+                filter.year = result.getInt(0);
+                filter.genre = result.getString(1);
+                filter.uses = result.getInt(2);
+                filters.add(filter);
+            }
+        }
+        finally {
+            result.close();
+        }
+        return filters;
+    }
+
+    /**
+     * Finds the most popular movie of the catalog that matches the filters and is not in the
+     * movie table. The seen movies are skipped by the query itself (anti-join against the movie
+     * table), while the changes not yet written and the extra filter are checked on the rows
+     * returned. The popularity of a movie is only compared with the ones of the same snapshot
+     * age, so when a movie last seen before freshAfter ranks above the eligible one the ranking
+     * can't be trusted and nothing is returned. Must not be called from the UI thread.
+     * @param year          Year of release of the movie (-1 if N/A)
+     * @param genreId       Genre the movie must include (-1 if N/A)
+     * @param filter        Decides which of the remaining movies are disqualified
+     * @param freshAfter    Time before which the popularity of a movie is stale
+     * @return              The movie's id or null if no movie of the catalog matches or the
+     *                      ones ranking above it are stale
+     */
+    public String FindCatalogMovie(int year, int genreId, TMDB_Parser.IdFilter filter, long freshAfter){
+        if(!setupFlag)
+            return null;
+
+        StringBuilder query = new StringBuilder("SELECT c.id, c.updated_at FROM catalog c WHERE ");
+        ArrayList<String> args = new ArrayList<>(2);
+        if(year != -1){
+            query.append("c.year=? AND ");
+            args.add(String.valueOf(year));
+        }
+        if(genreId != -1){
+            query.append("c.id IN (SELECT movie_id FROM catalog_genres WHERE genre_id=?) AND ");
+            args.add(String.valueOf(genreId));
+        }
+        query.append("NOT EXISTS (SELECT 1 FROM movies m WHERE m.id=c.id) ");
+        query.append("ORDER BY c.popularity DESC;");
+
+        Cursor result = db.rawQuery(query.toString(), args.toArray(new String[args.size()]));
+        try {
+            while (result.moveToNext()) {
+                String id = result.getString(0);
+                if(filter.IsDisqualified(id))
+                    continue;
+                // A stale snapshot may rank the movie above or below ones that overtook it since
+                return result.getLong(1) < freshAfter ? null : id;
+            }
+            return null;
+        }
+        finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Deletes row from the movie table using the TMDb id.
+     * The deletion is queued and written in the background, but is visible to DoesMovieExist
+     * right away. A deletion made before the set up is done is applied by SetUp.
+     * @param id    TMDb id of the movie for deletion
+     */
+    public void DeleteMovie(final String id){
+        if(!setupFlag && DeferUntilSetUp(new Runnable() {
+            @Override
+            public void run() {
+                DeleteMovie(id);
+            }
+        }))
+            return;
+
+        synchronized (seenIds) {
+            seenIds.remove(ParseId(id));
+        }
+        cursorsInvalidatedAt = System.currentTimeMillis();
+        writeQueue.Delete(id);
     }
 
     /**
      * Adds a row to the movie table. Saves the id and the title of the movie.
      * Title is currently unused by the app.
+     * The insertion is queued and written in the background, but is visible to DoesMovieExist
+     * right away. An insertion made before the set up is done is applied by SetUp.
      * @param id    TMDb id of the movie to add
      * @param title Title of the movie to add
      */
-    public void AddMovie(String id, String title){
-        if(!setupFlag)
+    public void AddMovie(final String id, final String title){
+        if(!setupFlag && DeferUntilSetUp(new Runnable() {
+            @Override
+            public void run() {
+                AddMovie(id, title);
+            }
+        }))
             return;
 
-        String query = "INSERT INTO movies(id, title) " +
-                        "VALUES('" + id + "', '" + title + "');";
-
-        db.execSQL(query);
+        synchronized (seenIds) {
+            int parsed = ParseId(id);
+            if(parsed != INVALID_ID)
+                seenIds.add(parsed);
+        }
+        writeQueue.Insert(id, title);
     }
 
     /**
-     * Checks if the id belongs to a movie that exists in the database
+     * Checks if the id belongs to a movie that exists in the database.
+     * The check is made against the in memory set of ids, so no query is sent to the database.
      * @param id    TMDb id, used as PK by the movie table
      * @return      Boolean value depending on finding the id in the database -- True if found
      */
@@ -98,30 +792,118 @@ public final class DB_Gate {
         if(!setupFlag)
             return false;
 
-        String query = "SELECT id FROM movies " +
-                        "WHERE id='" + id + "';";
+        long start = Metrics.Start();
+        try {
+            int parsed = ParseId(id);
+            if(parsed == INVALID_ID)
+                return DoesMovieExistInDatabase(id);
 
-        Cursor result = db.rawQuery(query, null);
-        if(result.getCount() > 0){
-            return true;
+            synchronized (seenIds) {
+                return seenIds.contains(parsed);
+            }
+        }
+        finally {
+            existsLatency.RecordSince(start);
         }
-        else
+    }
+
+    /**
+     * Checks if the id belongs to a movie that exists in the database by querying the movie table.
+     * Used as a fallback for ids that are not numeric. The queued changes are written first,
+     * so the query sees them. Must not be called from the UI thread.
+     * @param id    TMDb id, used as PK by the movie table
+     * @return      Boolean value depending on finding the id in the database -- True if found
+     */
+    public boolean DoesMovieExistInDatabase(String id){
+        if(!setupFlag)
             return false;
+
+        writeQueue.FlushAndWait();
+
+        String query = "SELECT id FROM movies " +
+                        "WHERE id=?;";
+
+        Cursor result = db.rawQuery(query, new String[]{id});
+        try {
+            return result.getCount() > 0;
+        }
+        finally {
+            result.close();
+        }
     }
 
     /**
      * Clears the whole database by dropping the tables and recreating them empty.
-     * Currently drops only one table, as only the movie table exists.
+     * The clearing is queued after the pending changes and written in the background.
+     * A clearing requested before the set up is done is applied by SetUp.
      */
     public void ClearDatabase(){
-        if(!setupFlag)
+        if(!setupFlag && DeferUntilSetUp(new Runnable() {
+            @Override
+            public void run() {
+                ClearDatabase();
+            }
+        }))
             return;
 
+        synchronized (seenIds) {
+            seenIds.clear();
+            clearCount++;
+        }
+        cursorsInvalidatedAt = System.currentTimeMillis();
+        writeQueue.Clear();
+    }
+
+    /**
+     * Drops the tables and recreates them empty.
+     * Currently drops only the movie, search cursor, import and filter usage tables, as the genre
+     * and catalog tables hold no data of the user.
+     * The progress of the imports is dropped along with the movies, so a file can be imported again.
+     */
+    private void DropAndCreateTables(){
         // Deletes tables
         String query = "DROP TABLE IF EXISTS movies;";
         db.execSQL(query);
+        db.execSQL("DROP TABLE IF EXISTS search_cursors;");
+        db.execSQL("DROP TABLE IF EXISTS imports;");
+        db.execSQL("DROP TABLE IF EXISTS filter_usage;");
 
         // Creates them again
-        CreateMovieTable();
+        CreateMovieTable(db);
+        CreateCursorTable(db);
+        CreateImportTable(db);
+        CreateFilterUsageTable(db);
+    }
+
+    /**
+     * Parses a TMDb id into an int without allocating.
+     * @param id    TMDb id as stored in the movie table
+     * @return      The id or INVALID_ID if it is not numeric
+     */
+    private static int ParseId(String id){
+        if(id == null || id.isEmpty() || id.length() > 10)
+            return INVALID_ID;
+
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if(c < '0' || c > '9')
+                return INVALID_ID;
+            value = value * 10 + (c - '0');
+        }
+        if(value > Integer.MAX_VALUE)
+            return INVALID_ID;
+        return (int) value;
+    }
+
+    /**
+     * Filters of the searches along with the amount of searches made with them.
+     */
+    public static final class FilterUse {
+        // Year filter (-1 if N/A)
+        public int year = -1;
+        // Genre filter ("" if N/A)
+        public String genre = "";
+        public int uses = 0;
     }
 }
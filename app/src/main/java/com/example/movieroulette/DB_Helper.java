@@ -0,0 +1,52 @@
+package com.example.movieroulette;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Opens the database of DB_Gate with write-ahead logging and keeps track of its schema version.
+ * Created with the application context, so the database outlives the activities.
+ * With write-ahead logging the database keeps a pool of connections, so queries from
+ * several threads run at the same time and are not blocked by the background writes.
+ */
+public final class DB_Helper extends SQLiteOpenHelper {
+
+    // Version of the schema, raised along with a new step in onUpgrade whenever it changes
+    // 1: movies, genres, catalog, search cursors and imports
+    // 2: filter usage
+    public static final int DB_VERSION = 2;
+
+    /**
+     * @param context   Context of the app, the application context is kept
+     * @param name      Name of the database file
+     */
+    public DB_Helper(Context context, String name){
+        super(context.getApplicationContext(), name, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Creates the tables of a new database.
+     * Databases created before the schema was versioned are opened as version 0 and come
+     * through here too, so the tables are only created if they don't exist already.
+     * @param db    Database being created
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        DB_Gate.CreateTables(db);
+    }
+
+    /**
+     * Migrates the schema one version at a time, in the same transaction as the version change.
+     * @param db            Database being upgraded
+     * @param oldVersion    Version of the schema on disk
+     * @param newVersion    DB_VERSION
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Versions up to 2 only added tables, which CreateTables adds when missing
+        // Steps changing existing tables go here as "if(oldVersion < 3) {...}" and so on
+        DB_Gate.CreateTables(db);
+    }
+}
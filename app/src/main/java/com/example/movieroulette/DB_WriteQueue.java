@@ -0,0 +1,342 @@
+package com.example.movieroulette;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for the changes made to the movie and filter usage tables by DB_Gate.
+ * Changes are queued in order and written by a background thread in a single transaction,
+ * using compiled statements, once enough of them are pending or a small delay has passed.
+ * DB_Gate updates its in memory set of ids before queueing, so reads see the queued changes.
+ * A batch that fails to be written is rolled back and queued again ahead of the later changes,
+ * then retried with a growing delay, so the set of ids never holds changes that are dropped.
+ */
+public final class DB_WriteQueue {
+
+    // A flush starts right away once this many changes are pending
+    private static final int MAX_PENDING = 32;
+    // Otherwise the pending changes are written this long after the first one was queued
+    private static final long MAX_DELAY_MS = 2000;
+    // A failed batch is retried after MAX_DELAY_MS, doubled on every failure up to this many times
+    private static final int MAX_RETRY_DOUBLINGS = 5;
+    // Flushes tried by Close before giving up on the pending changes
+    private static final int CLOSE_ATTEMPTS = 3;
+
+    // Types of the queued changes
+    private static final int OP_INSERT = 0;
+    private static final int OP_DELETE = 1;
+    private static final int OP_CLEAR = 2;
+    private static final int OP_FILTER_USE = 3;
+
+    private final SQLiteDatabase db;
+    private final Runnable clearAction;
+    private final Runnable deleteAction;
+
+    // Changes waiting to be written, in the order they were made
+    private ArrayList<Change> pending = new ArrayList<>();
+
+    // Changes queued but not committed yet, including the ones of a flush in progress
+    private int unwritten = 0;
+
+    // Flushes failed in a row, reset by the next successful one
+    private int failures = 0;
+
+    // Timed flush waiting to run, null if none is scheduled
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    // Single thread, so the flushes are serialized and run in the order they were requested
+    private final ScheduledExecutorService writer;
+
+    // Statements compiled on the writer thread the first time they are needed
+    private SQLiteStatement insertStatement = null;
+    private SQLiteStatement deleteStatement = null;
+    private SQLiteStatement addFilterStatement = null;
+    private SQLiteStatement countFilterStatement = null;
+
+    /**
+     * @param openedDatabase    Open database containing the movie table
+     * @param clearAction       Drops and recreates the tables, run in order with the rest
+     *                          of the changes when the database is cleared
+     * @param deleteAction      Run in the same transaction after a movie is deleted
+     */
+    public DB_WriteQueue(SQLiteDatabase openedDatabase, Runnable clearAction, Runnable deleteAction){
+        this.db = openedDatabase;
+        this.clearAction = clearAction;
+        this.deleteAction = deleteAction;
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "MovieRoulette-db-writer");
+            }
+        });
+    }
+
+    /**
+     * Queues the insertion of a movie.
+     * @param id    TMDb id of the movie
+     * @param title Title of the movie
+     */
+    public void Insert(String id, String title){
+        Enqueue(new Change(OP_INSERT, id, title));
+    }
+
+    /**
+     * Queues the deletion of a movie.
+     * @param id    TMDb id of the movie
+     */
+    public void Delete(String id){
+        Enqueue(new Change(OP_DELETE, id, null));
+    }
+
+    /**
+     * Queues the counting of a search made with the filters.
+     * @param year      Year filter of the search (-1 if N/A)
+     * @param genre     Genre filter of the search ("" if N/A)
+     */
+    public void RecordFilterUse(int year, String genre){
+        Enqueue(new Change(OP_FILTER_USE, null, genre, year, System.currentTimeMillis()));
+    }
+
+    /**
+     * Queues the clearing of the database. Changes queued before it are dropped, as they
+     * would be deleted anyway.
+     */
+    public void Clear(){
+        synchronized (this) {
+            unwritten -= pending.size();
+            pending.clear();
+        }
+        Enqueue(new Change(OP_CLEAR, null, null));
+    }
+
+    /**
+     * Requests the pending changes to be written in the background as soon as possible.
+     * Meant to be called from lifecycle hooks (e.g. onStop) so no change is lost with the process.
+     * @return  Future of the flush, done when the changes are written
+     */
+    public Future<?> Flush(){
+        synchronized (this) {
+            if(scheduledFlush != null){
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        return writer.submit(flushTask);
+    }
+
+    /**
+     * Writes the pending changes and waits for them to be committed.
+     * Must not be called from the UI thread.
+     * @return  True if the changes were committed, false if the flush failed and they are queued
+     *          for a retry, or the wait was interrupted
+     */
+    public boolean FlushAndWait(){
+        synchronized (this) {
+            if(unwritten == 0)
+                return true;
+        }
+        try {
+            Flush().get();
+            return true;
+        }
+        catch(ExecutionException e){
+            System.out.println(e.getMessage());
+            return false;
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the pending changes, retrying a failed flush right away, and stops the writer thread.
+     * Used when DB_Gate switches to another database. Must not be called from the UI thread.
+     * @return  True if every change was written, false if some were dropped
+     */
+    public boolean Close(){
+        boolean written = false;
+        for (int attempt = 0; attempt < CLOSE_ATTEMPTS && !written; attempt++) {
+            written = FlushAndWait();
+        }
+
+        synchronized (this) {
+            // The retry of a failed flush would run after the queue is closed
+            if(scheduledFlush != null){
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if(!written)
+                System.out.println("Dropped " + unwritten + " database changes that could not be written");
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                CloseStatements();
+            }
+        });
+        writer.shutdown();
+        return written;
+    }
+
+    private void Enqueue(Change change){
+        synchronized (this) {
+            pending.add(change);
+            unwritten++;
+            if(pending.size() >= MAX_PENDING){
+                if(scheduledFlush != null)
+                    scheduledFlush.cancel(false);
+                scheduledFlush = writer.schedule(flushTask, 0, TimeUnit.MILLISECONDS);
+            }
+            else if(scheduledFlush == null){
+                scheduledFlush = writer.schedule(flushTask, MAX_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Takes the pending changes and writes them in one transaction. Runs only on the writer thread.
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<Change> batch;
+            synchronized (DB_WriteQueue.this) {
+                scheduledFlush = null;
+                if(pending.isEmpty())
+                    return;
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+
+            RuntimeException failure = null;
+            try {
+                db.beginTransactionNonExclusive();
+                try {
+                    for (Change change: batch) {
+                        Write(change);
+                    }
+                    db.setTransactionSuccessful();
+                }
+                finally {
+                    // Commits, which can fail too
+                    db.endTransaction();
+                }
+            }
+            catch(RuntimeException e){
+                failure = e;
+            }
+
+            synchronized (DB_WriteQueue.this) {
+                if(failure == null){
+                    unwritten -= batch.size();
+                    failures = 0;
+                    return;
+                }
+
+                // Nothing of the batch was committed, it is written again ahead of the changes
+                // queued since, so they stay in order
+                batch.addAll(pending);
+                pending = batch;
+                failures++;
+                if(scheduledFlush != null)
+                    scheduledFlush.cancel(false);
+                scheduledFlush = null;
+                if(!writer.isShutdown())
+                    scheduledFlush = writer.schedule(flushTask,
+                            MAX_DELAY_MS << Math.min(failures - 1, MAX_RETRY_DOUBLINGS), TimeUnit.MILLISECONDS);
+            }
+            System.out.println(failure.getMessage());
+            // Fails the future of the flush, so FlushAndWait reports it
+            throw failure;
+        }
+    };
+
+    private void Write(Change change){
+        switch (change.op){
+            case OP_INSERT:
+                if(insertStatement == null)
+                    insertStatement = db.compileStatement("INSERT OR IGNORE INTO movies(id, title) VALUES(?, ?);");
+                insertStatement.bindString(1, change.id);
+                insertStatement.bindString(2, change.title);
+                insertStatement.executeInsert();
+                break;
+            case OP_DELETE:
+                if(deleteStatement == null)
+                    deleteStatement = db.compileStatement("DELETE FROM movies WHERE id=?;");
+                deleteStatement.bindString(1, change.id);
+                deleteStatement.executeUpdateDelete();
+                deleteAction.run();
+                break;
+            case OP_FILTER_USE:
+                // The row is created on the first use, then counted in the same transaction
+                if(addFilterStatement == null)
+                    addFilterStatement = db.compileStatement("INSERT OR IGNORE INTO filter_usage(year, genre, uses, last_used) VALUES(?, ?, 0, 0);");
+                if(countFilterStatement == null)
+                    countFilterStatement = db.compileStatement("UPDATE filter_usage SET uses=uses+1, last_used=? WHERE year=? AND genre=?;");
+                addFilterStatement.bindLong(1, change.year);
+                addFilterStatement.bindString(2, change.title);
+                addFilterStatement.executeInsert();
+                countFilterStatement.bindLong(1, change.time);
+                countFilterStatement.bindLong(2, change.year);
+                countFilterStatement.bindString(3, change.title);
+                countFilterStatement.executeUpdateDelete();
+                break;
+            case OP_CLEAR:
+                // The tables are recreated, so the statements are compiled again when needed
+                CloseStatements();
+                clearAction.run();
+                break;
+        }
+    }
+
+    private void CloseStatements(){
+        if(insertStatement != null){
+            insertStatement.close();
+            insertStatement = null;
+        }
+        if(deleteStatement != null){
+            deleteStatement.close();
+            deleteStatement = null;
+        }
+        if(addFilterStatement != null){
+            addFilterStatement.close();
+            addFilterStatement = null;
+        }
+        if(countFilterStatement != null){
+            countFilterStatement.close();
+            countFilterStatement = null;
+        }
+    }
+
+    /**
+     * Single queued change of the movie table, or use of the filters, whose genre is kept in title.
+     */
+    private static final class Change {
+        final int op;
+        final String id;
+        final String title;
+        final int year;
+        // Time the change was made
+        final long time;
+
+        Change(int op, String id, String title){
+            this(op, id, title, 0, 0);
+        }
+
+        Change(int op, String id, String title, int year, long time){
+            this.op = op;
+            this.id = id;
+            this.title = title;
+            this.year = year;
+            this.time = time;
+        }
+    }
+}
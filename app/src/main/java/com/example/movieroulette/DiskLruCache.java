@@ -0,0 +1,292 @@
+package com.example.movieroulette;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Size bounded cache of files in a directory, evicting the least recently used entries.
+ * Every entry is a single file named after the hash of its key. Entries are written through an
+ * Editor that streams into a temporary file, which replaces the entry only when committed, so
+ * readers never see a half written entry.
+ * The recency of the entries is kept in the files' modification time, so it survives restarts.
+ */
+public final class DiskLruCache {
+
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+
+    // Sizes of the entries by file name, iterated from least to most recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size = 0;
+
+    // Used for giving every editor its own temporary file
+    private final AtomicInteger tempCount = new AtomicInteger();
+
+    /**
+     * Opens the cache, picking up the entries already in the directory.
+     * @param directory Directory of the cache, created if missing
+     * @param maxBytes  Maximum total size of the entries
+     */
+    public DiskLruCache(File directory, long maxBytes){
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        LoadEntries();
+    }
+
+    private synchronized void LoadEntries(){
+        if(!directory.exists() && !directory.mkdirs())
+            System.out.println("Could not create cache directory " + directory);
+
+        File[] files = directory.listFiles();
+        if(files == null)
+            return;
+
+        // Oldest first, so the access order of the map matches the files' recency
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file: files) {
+            if(file.getName().endsWith(TEMP_SUFFIX)){
+                // Left over by an editor that never finished
+                file.delete();
+            }
+            else if(file.getName().endsWith(ENTRY_SUFFIX)){
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        Trim();
+    }
+
+    /**
+     * Opens the entry of the key for reading and marks it as the most recently used.
+     * @param key   Key of the entry
+     * @return      Stream with the contents of the entry or null if there is no such entry
+     */
+    public InputStream Read(String key){
+        String name = FileName(key);
+        File file = new File(directory, name);
+        synchronized (this) {
+            if(entries.get(name) == null)
+                return null;
+        }
+        try {
+            InputStream stream = new FileInputStream(file);
+            file.setLastModified(System.currentTimeMillis());
+            return stream;
+        }
+        catch(FileNotFoundException e){
+            // Deleted outside of the cache
+            Remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the file of the entry of the key and marks it as the most recently used.
+     * The file may be evicted while in use, readers must handle it disappearing.
+     * @param key   Key of the entry
+     * @return      File with the contents of the entry or null if there is no such entry
+     */
+    public File GetFile(String key){
+        String name = FileName(key);
+        File file = new File(directory, name);
+        synchronized (this) {
+            if(entries.get(name) == null)
+                return null;
+        }
+        if(!file.exists()){
+            Remove(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * @param key   Key of the entry
+     * @return      Size of the entry in bytes or -1 if there is no such entry
+     */
+    public synchronized long GetEntrySize(String key){
+        Long entrySize = entries.get(FileName(key));
+        return entrySize == null ? -1 : entrySize;
+    }
+
+    /**
+     * @param key   Key of the entry
+     * @return      True if the cache has an entry for the key
+     */
+    public synchronized boolean Contains(String key){
+        return entries.containsKey(FileName(key));
+    }
+
+    /**
+     * Starts writing the entry of the key. The entry is replaced only when the editor is committed.
+     * @param key   Key of the entry
+     * @return      Editor to stream the contents into, or null if the file could not be created
+     */
+    public Editor Edit(String key){
+        String name = FileName(key);
+        File temp = new File(directory, name + "." + tempCount.incrementAndGet() + TEMP_SUFFIX);
+        try {
+            return new Editor(name, temp);
+        }
+        catch(FileNotFoundException e){
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes the entry of the key if it exists.
+     * @param key   Key of the entry
+     */
+    public synchronized void Remove(String key){
+        String name = FileName(key);
+        Long removed = entries.remove(name);
+        if(removed != null)
+            size -= removed;
+        new File(directory, name).delete();
+    }
+
+    /**
+     * Removes every entry of the cache.
+     */
+    public synchronized void Clear(){
+        for (String name: entries.keySet()) {
+            new File(directory, name).delete();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized long getSize() { return size; }
+
+    public long getMaxSize() { return maxBytes; }
+
+    private synchronized void Commit(String name, File temp){
+        File file = new File(directory, name);
+        if(!temp.renameTo(file)){
+            temp.delete();
+            return;
+        }
+        Long previous = entries.put(name, file.length());
+        if(previous != null)
+            size -= previous;
+        size += file.length();
+        Trim();
+    }
+
+    // Evicts the least recently used entries until the cache fits in its maximum size
+    private void Trim(){
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while(size > maxBytes && iterator.hasNext()){
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    // Hashes the key, so any string can be used as a key
+    private static String FileName(String key){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder name = new StringBuilder(hash.length * 2 + ENTRY_SUFFIX.length());
+            for (byte b: hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(ENTRY_SUFFIX).toString();
+        }
+        catch(NoSuchAlgorithmException e){
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Stream writing a new version of an entry into a temporary file.
+     * Either Commit or Abort must be called when done.
+     */
+    public final class Editor extends FilterOutputStream {
+
+        private final String name;
+        private final File temp;
+        private boolean finished = false;
+
+        private Editor(String name, File temp) throws FileNotFoundException {
+            super(new BufferedOutputStream(new FileOutputStream(temp)));
+            this.name = name;
+            this.temp = temp;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+        }
+
+        /**
+         * Closes the stream and replaces the entry with the written contents.
+         * @throws IOException  If the contents could not be written, the entry is left untouched
+         */
+        public void Commit() throws IOException {
+            if(finished)
+                return;
+            finished = true;
+            try {
+                out.close();
+            }
+            catch(IOException e){
+                temp.delete();
+                throw e;
+            }
+            DiskLruCache.this.Commit(name, temp);
+        }
+
+        /**
+         * Closes the stream and discards the written contents.
+         */
+        public void Abort(){
+            if(finished)
+                return;
+            finished = true;
+            try {
+                out.close();
+            }
+            catch(IOException e){
+                System.out.println(e.getMessage());
+            }
+            temp.delete();
+        }
+
+        /**
+         * Closing without committing discards the written contents.
+         */
+        @Override
+        public void close() {
+            Abort();
+        }
+    }
+}
@@ -10,12 +10,12 @@ import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * Simple activity containing a ListView for choosing a movie genre.
- * The genres' list is retrieved from the TMDb API is a Wrapper object.
+ * The genres' list is taken from the GenreRegistry, or retrieved from the TMDb API through a
+ * Wrapper object if no genres are stored yet.
  * The user's choice is returned to the calling activity using Extras.
  */
 public class GenreList extends AppCompatActivity {
@@ -23,6 +23,9 @@ public class GenreList extends AppCompatActivity {
     ListView genreList;
     TMDB_Wrapper tmdb;
 
+    // Background tasks started by the activity, cancelled when the activity goes away
+    private final TaskRunner.TaskGroup tasks = new TaskRunner.TaskGroup();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -36,18 +39,41 @@ public class GenreList extends AppCompatActivity {
     }
 
 
+    @Override
+    protected void onDestroy() {
+        tasks.CancelAll();
+        super.onDestroy();
+    }
+
     /**
-     * Retrieves the genres from the TMDb and fills the ListView with them.
+     * Fills the ListView with the genres loaded at app start, or retrieves them in the background
+     * if they are not loaded yet.
      */
     private void populateGenreList(){
-        HashMap<String, Integer> genreMap = tmdb.GetMovieGenres();
-        ArrayList<String> genreArray = new ArrayList<>();
-
-        for (HashMap.Entry<String, Integer> genre: genreMap.entrySet()) {
-            genreArray.add(genre.getKey());
+        GenreRegistry.Genres loaded = GenreRegistry.getInstance().Peek();
+        if(loaded != null && loaded.size() > 0){
+            showGenres(loaded);
+            return;
         }
 
-        ArrayAdapter<String> genreAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, genreArray);
+        tasks.Add(tmdb.GetGenresAsync(new TaskRunner.Callback<GenreRegistry.Genres>() {
+            @Override
+            public void onResult(GenreRegistry.Genres genres) {
+                if(genres == null){
+                    Toast.makeText(getBaseContext(), "Could not load genres!", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                showGenres(genres);
+            }
+        }));
+    }
+
+    /**
+     * Fills the ListView with the genres' names, sorted alphabetically.
+     * @param genres    The genres to show
+     */
+    private void showGenres(GenreRegistry.Genres genres){
+        ArrayAdapter<String> genreAdapter = new ArrayAdapter<>(GenreList.this, android.R.layout.simple_list_item_1, Arrays.asList(genres.getNames()));
         genreList.setAdapter(genreAdapter);
     }
 
@@ -0,0 +1,160 @@
+package com.example.movieroulette;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton class keeping the movie genres of TMDb and their ids.
+ * The genres are stored in the database and loaded in the background when the process starts,
+ * so the genre picker and the genre filter work without asking TMDb every time. Stored genres
+ * older than their TTL are still used while they are refreshed from TMDb.
+ */
+public final class GenreRegistry {
+
+    // Time after which the stored genres are refreshed from TMDb
+    public static final long TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    // Returned for the names of genres that are not known
+    public static final int UNKNOWN_GENRE = -1;
+
+    // Longest wait for the stored genres to be loaded
+    private static final long LOAD_TIMEOUT_MS = 5000;
+
+    // Genres currently known, replaced as a whole when refreshed (null until loaded)
+    private volatile Genres genres = null;
+
+    // Released once the stored genres have been loaded (or found missing)
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    private static GenreRegistry instance = null;
+
+    private GenreRegistry(){
+        // Private Constructor to make singleton
+    }
+
+    public static synchronized GenreRegistry getInstance(){
+        if(instance == null){
+            instance = new GenreRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the stored genres and refreshes them from TMDb if they are missing or expired.
+     * Called once in the background when the process starts.
+     * @param tmdb  Wrapper used for refreshing the genres
+     */
+    public void WarmUp(TMDB_Wrapper tmdb){
+        try {
+            Genres stored = DB_Gate.getInstance().LoadGenres();
+            if(stored != null && genres == null)
+                genres = stored;
+        }
+        finally {
+            loaded.countDown();
+        }
+
+        Genres current = genres;
+        if(current == null || current.IsExpired())
+            tmdb.GetMovieGenres();
+    }
+
+    /**
+     * Replaces the genres with the ones received from TMDb and stores them.
+     * Must not be called from the UI thread.
+     * @param genreMap  Genres' names mapped to their ids
+     * @return          The new genres
+     */
+    public Genres Update(Map<String, Integer> genreMap){
+        Genres fresh = new Genres(genreMap, System.currentTimeMillis());
+        genres = fresh;
+        loaded.countDown();
+        DB_Gate.getInstance().StoreGenres(fresh);
+        return fresh;
+    }
+
+    /**
+     * @return  The genres if they are loaded already, otherwise null
+     */
+    public Genres Peek(){
+        return genres;
+    }
+
+    /**
+     * Waits for the stored genres to be loaded. Must not be called from the UI thread.
+     * @return  The genres or null if none are stored and they haven't been received yet
+     */
+    public Genres Await(){
+        try {
+            loaded.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        return genres;
+    }
+
+    /**
+     * Immutable list of genres, sorted by name, with the ids kept in a parallel array.
+     */
+    public static final class Genres {
+
+        private final String[] names;
+        private final int[] ids;
+        private final long updatedAt;
+
+        /**
+         * @param genreMap  Genres' names mapped to their ids
+         * @param updatedAt Time the genres were received from TMDb
+         */
+        public Genres(Map<String, Integer> genreMap, long updatedAt){
+            names = genreMap.keySet().toArray(new String[genreMap.size()]);
+            Arrays.sort(names);
+            ids = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                ids[i] = genreMap.get(names[i]);
+            }
+            this.updatedAt = updatedAt;
+        }
+
+        /**
+         * @param name  Name of the genre
+         * @return      Id of the genre or UNKNOWN_GENRE if there is no such genre
+         */
+        public int GetId(String name){
+            int index = Arrays.binarySearch(names, name);
+            return index < 0 ? UNKNOWN_GENRE : ids[index];
+        }
+
+        public int size() { return names.length; }
+
+        public String getName(int index) { return names[index]; }
+
+        public int getId(int index) { return ids[index]; }
+
+        public String[] getNames() { return names.clone(); }
+
+        public long getUpdatedAt() { return updatedAt; }
+
+        /**
+         * @return  True if the genres are older than their TTL
+         */
+        public boolean IsExpired(){
+            return System.currentTimeMillis() - updatedAt > TTL_MS;
+        }
+
+        /**
+         * @return  The genres' names mapped to their ids
+         */
+        public HashMap<String, Integer> ToMap(){
+            HashMap<String, Integer> genreMap = new HashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                genreMap.put(names[i], ids[i]);
+            }
+            return genreMap;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.movieroulette;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of the TMDb API responses, kept in a size bounded DiskLruCache.
+ * Entries are keyed by the normalized request URL without the API key and store the response
+ * body along with the validators (ETag, Last-Modified) and the freshness given by Cache-Control.
+ * TMDB_Wrapper decides with the help of the entries whether a response can be served as is,
+ * served while it is revalidated in the background, or has to be revalidated first.
+ */
+public final class HttpCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Version of the entries' format, entries of other versions are ignored
+    private static final int FORMAT_VERSION = 1;
+
+    // Query parameter removed from the keys, so changing the key doesn't invalidate the cache
+    private static final String API_KEY_PARAM = "api_key";
+
+    // Used when the response doesn't say for how long a stale entry may be served while revalidating
+    private static final long DEFAULT_STALE_WHILE_REVALIDATE_MS = 24 * 60 * 60 * 1000L;
+
+    private final DiskLruCache disk;
+
+    // Counters of the cache's use
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    /**
+     * @param directory Directory of the cache
+     * @param maxBytes  Maximum total size of the cached responses
+     */
+    public HttpCache(File directory, long maxBytes){
+        disk = new DiskLruCache(directory, maxBytes);
+    }
+
+    /**
+     * Returns the cached response of the URL.
+     * @param url   Request URL, with or without the API key
+     * @return      The cached entry or null if there is none
+     */
+    public Entry Get(String url){
+        String key = NormalizeKey(url);
+        InputStream stream = disk.Read(key);
+        if(stream == null)
+            return null;
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(stream))){
+            if(in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())){
+                disk.Remove(key);
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.etag = EmptyToNull(in.readUTF());
+            entry.lastModified = EmptyToNull(in.readUTF());
+            entry.storedAt = in.readLong();
+            entry.maxAgeMs = in.readLong();
+            entry.staleWhileRevalidateMs = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            entry.body = new String(body, UTF_8);
+            return entry;
+        }
+        catch(IOException e){
+            // Corrupted entry
+            System.out.println(e.getMessage());
+            disk.Remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * @param url   Request URL, with or without the API key
+     * @return      Size of the cached response on disk or -1 if there is none
+     */
+    public long GetStoredSize(String url){
+        return disk.GetEntrySize(NormalizeKey(url));
+    }
+
+    /**
+     * Stores the response of the URL, unless its Cache-Control forbids it.
+     * @param url           Request URL, with or without the API key
+     * @param body          Body of the response
+     * @param cacheControl  Cache-Control header of the response (can be null)
+     * @param etag          ETag header of the response (can be null)
+     * @param lastModified  Last-Modified header of the response (can be null)
+     * @return              The stored entry or null if the response can't be cached
+     */
+    public Entry Put(String url, String body, String cacheControl, String etag, String lastModified){
+        CacheControl control = CacheControl.Parse(cacheControl);
+        if(control.noStore)
+            return null;
+
+        Entry entry = new Entry();
+        entry.body = body;
+        entry.etag = etag;
+        entry.lastModified = lastModified;
+        entry.storedAt = System.currentTimeMillis();
+        entry.maxAgeMs = control.noCache ? 0 : control.maxAgeMs;
+        entry.staleWhileRevalidateMs = StaleWhileRevalidateMs(control);
+        Write(NormalizeKey(url), entry);
+        return entry;
+    }
+
+    /**
+     * Marks the cached response as fresh again after the server answered 304 Not Modified.
+     * @param url           Request URL, with or without the API key
+     * @param entry         Entry that was revalidated
+     * @param cacheControl  Cache-Control header of the 304 response (can be null)
+     */
+    public void Refresh(String url, Entry entry, String cacheControl){
+        CacheControl control = CacheControl.Parse(cacheControl);
+        entry.storedAt = System.currentTimeMillis();
+        if(cacheControl != null){
+            entry.maxAgeMs = control.noCache ? 0 : control.maxAgeMs;
+            entry.staleWhileRevalidateMs = StaleWhileRevalidateMs(control);
+        }
+        Write(NormalizeKey(url), entry);
+    }
+
+    // No-cache responses must be revalidated before every use, so they are never served stale
+    private static long StaleWhileRevalidateMs(CacheControl control){
+        if(control.noCache)
+            return 0;
+        return control.staleWhileRevalidateMs >= 0
+                ? control.staleWhileRevalidateMs : DEFAULT_STALE_WHILE_REVALIDATE_MS;
+    }
+
+    private void Write(String key, Entry entry){
+        DiskLruCache.Editor editor = disk.Edit(key);
+        if(editor == null)
+            return;
+
+        try {
+            DataOutputStream out = new DataOutputStream(editor);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeUTF(entry.etag == null ? "" : entry.etag);
+            out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.maxAgeMs);
+            out.writeLong(entry.staleWhileRevalidateMs);
+            byte[] body = entry.body.getBytes(UTF_8);
+            out.writeInt(body.length);
+            out.write(body);
+            out.flush();
+            editor.Commit();
+        }
+        catch(IOException e){
+            System.out.println(e.getMessage());
+            editor.Abort();
+        }
+    }
+
+    // Counters, updated by TMDB_Wrapper as it serves the requests
+    public void RecordHit() { hits.incrementAndGet(); }
+    public void RecordMiss() { misses.incrementAndGet(); }
+    public void RecordRevalidation() { revalidations.incrementAndGet(); }
+    public void RecordStaleHit() { staleHits.incrementAndGet(); }
+
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+    public long getRevalidationCount() { return revalidations.get(); }
+    public long getStaleHitCount() { return staleHits.get(); }
+    public long getSize() { return disk.getSize(); }
+
+    /**
+     * Builds the key of a request URL. The scheme and host are lowercased, the API key is removed
+     * and the rest of the query parameters are sorted, so equal requests share an entry.
+     * @param url   Request URL
+     * @return      Key of the URL
+     */
+    public static String NormalizeKey(String url){
+        int queryStart = url.indexOf('?');
+        String path = queryStart == -1 ? url : url.substring(0, queryStart);
+        int hostEnd = path.indexOf('/', path.indexOf("://") + 3);
+        if(hostEnd == -1)
+            hostEnd = path.length();
+        path = path.substring(0, hostEnd).toLowerCase() + path.substring(hostEnd);
+        if(queryStart == -1)
+            return path;
+
+        String[] params = url.substring(queryStart + 1).split("&");
+        Arrays.sort(params);
+        StringBuilder key = new StringBuilder(path);
+        char separator = '?';
+        for (String param: params) {
+            if(param.isEmpty() || param.startsWith(API_KEY_PARAM + "="))
+                continue;
+            key.append(separator).append(param);
+            separator = '&';
+        }
+        return key.toString();
+    }
+
+    private static String EmptyToNull(String value){
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Cached response along with the information needed for revalidating it.
+     */
+    public static final class Entry {
+        private String body;
+        private String etag;
+        private String lastModified;
+        private long storedAt;
+        private long maxAgeMs;
+        private long staleWhileRevalidateMs;
+
+        public String getBody() { return body; }
+
+        public String getEtag() { return etag; }
+
+        public String getLastModified() { return lastModified; }
+
+        /**
+         * @return  True if the entry can be served without asking the server
+         */
+        public boolean IsFresh(){
+            return System.currentTimeMillis() - storedAt < maxAgeMs;
+        }
+
+        /**
+         * @return  True if the entry can be served while it is revalidated in the background
+         */
+        public boolean CanServeWhileRevalidating(){
+            return System.currentTimeMillis() - storedAt < maxAgeMs + staleWhileRevalidateMs;
+        }
+    }
+
+    /**
+     * The directives of a Cache-Control header that the cache takes into account.
+     */
+    private static final class CacheControl {
+        boolean noStore = false;
+        boolean noCache = false;
+        long maxAgeMs = 0;
+        long staleWhileRevalidateMs = -1;
+
+        static CacheControl Parse(String header){
+            CacheControl control = new CacheControl();
+            if(header == null)
+                return control;
+
+            for (String directive: header.toLowerCase().split(",")) {
+                directive = directive.trim();
+                try {
+                    if(directive.equals("no-store"))
+                        control.noStore = true;
+                    else if(directive.equals("no-cache"))
+                        control.noCache = true;
+                    else if(directive.startsWith("max-age="))
+                        control.maxAgeMs = Long.parseLong(directive.substring(8)) * 1000;
+                    else if(directive.startsWith("stale-while-revalidate="))
+                        control.staleWhileRevalidateMs = Long.parseLong(directive.substring(23)) * 1000;
+                }
+                catch(NumberFormatException e){
+                    System.out.println(e.getMessage());
+                }
+            }
+            return control;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.movieroulette;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GET request sent through an HttpTransport.
+ */
+public final class HttpRequest {
+
+    private final String url;
+    private final int timeoutMs;
+    private final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+
+    /**
+     * @param url       The url of the request
+     * @param timeoutMs Deadline of the whole request, from connecting until the body is read
+     */
+    public HttpRequest(String url, int timeoutMs){
+        this.url = url;
+        this.timeoutMs = timeoutMs;
+    }
+
+    public String getUrl() { return url; }
+
+    public int getTimeoutMs() { return timeoutMs; }
+
+    public Map<String, String> getHeaders() { return headers; }
+
+    /**
+     * Sets a header of the request, replacing any previous value.
+     * @param name  Name of the header
+     * @param value Value of the header
+     * @return      The request itself, for chaining
+     */
+    public HttpRequest SetHeader(String name, String value){
+        headers.put(name, value);
+        return this;
+    }
+}
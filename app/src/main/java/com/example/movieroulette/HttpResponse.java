@@ -0,0 +1,81 @@
+package com.example.movieroulette;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Response returned by an HttpTransport.
+ * The body is already decompressed. Closing the response reads what is left of the body, so
+ * the connection can go back to the keep-alive pool, and then closes it.
+ */
+public class HttpResponse implements Closeable {
+
+    // Bodies with more than this left unread are not worth draining, the connection is dropped
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    // Buffers used for draining, one per thread so they are allocated only once
+    private static final ThreadLocal<byte[]> drainBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8 * 1024];
+        }
+    };
+
+    private final int code;
+    private final TreeMap<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final InputStream body;
+
+    /**
+     * @param code      Status code of the response
+     * @param headers   Headers of the response
+     * @param body      Decompressed body of the response
+     */
+    public HttpResponse(int code, Map<String, String> headers, InputStream body){
+        this.code = code;
+        this.headers.putAll(headers);
+        this.body = body;
+    }
+
+    public int getCode() { return code; }
+
+    public InputStream getBody() { return body; }
+
+    /**
+     * @param name  Name of the header, case insensitive
+     * @return      Value of the header or null if the response doesn't have it
+     */
+    public String getHeader(String name) { return headers.get(name); }
+
+    /**
+     * @return  Headers of the response, with case insensitive names
+     */
+    public Map<String, String> getHeaders() { return Collections.unmodifiableMap(headers); }
+
+    /**
+     * Releases the connection of the response without reusing it.
+     * Called when the body can't be drained. Does nothing by default.
+     */
+    protected void Abort(){
+    }
+
+    @Override
+    public void close() {
+        try {
+            byte[] buffer = drainBuffer.get();
+            int drained = 0;
+            int read;
+            while(drained <= MAX_DRAIN_BYTES && (read = body.read(buffer)) != -1)
+                drained += read;
+            body.close();
+            if(drained > MAX_DRAIN_BYTES)
+                Abort();
+        }
+        catch(IOException e){
+            Abort();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.movieroulette;
+
+import java.io.IOException;
+
+/**
+ * Interface of the layer that sends the HTTP requests of TMDB_Wrapper.
+ * The production implementation is UrlConnectionTransport. Tests can plug in their own
+ * implementation (e.g. one pointing at a local stand-in server) through TMDB_Wrapper.SetTransport,
+ * or give one to a single wrapper through its constructor.
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends the request and returns the response once its headers have arrived.
+     * The caller must close the response, so the connection can be reused.
+     * @param request   The request to send
+     * @return          The response of the server, whatever its status code
+     * @throws IOException  If the request could not be sent or the deadline passed
+     */
+    HttpResponse Execute(HttpRequest request) throws IOException;
+}
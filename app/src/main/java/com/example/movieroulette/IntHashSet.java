@@ -0,0 +1,156 @@
+package com.example.movieroulette;
+
+import java.util.Arrays;
+
+/**
+ * Compact set of primitive int values, used for keeping the TMDb ids of the seen movies in memory.
+ * Uses open addressing with linear probing over a single int array, so lookups don't allocate
+ * and don't box the ids.
+ * The class is not thread safe, its owner is responsible for synchronizing the access.
+ */
+public final class IntHashSet {
+
+    // Slot value marking an empty slot. The value 0 itself is tracked by a separate flag.
+    private static final int EMPTY = 0;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] slots;
+    private int size;
+    private boolean containsZero;
+
+    public IntHashSet(){
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize  Amount of values the set should hold without resizing
+     */
+    public IntHashSet(int expectedSize){
+        slots = new int[CapacityFor(expectedSize)];
+    }
+
+    public int size() { return size; }
+
+    /**
+     * @param value Value to look for
+     * @return      True if the value is in the set
+     */
+    public boolean contains(int value){
+        if(value == EMPTY)
+            return containsZero;
+
+        int mask = slots.length - 1;
+        int i = Mix(value) & mask;
+        while(slots[i] != EMPTY){
+            if(slots[i] == value)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @param value Value to add
+     * @return      True if the value was not in the set already
+     */
+    public boolean add(int value){
+        if(value == EMPTY){
+            if(containsZero)
+                return false;
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        int mask = slots.length - 1;
+        int i = Mix(value) & mask;
+        while(slots[i] != EMPTY){
+            if(slots[i] == value)
+                return false;
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        size++;
+
+        // Keeping the load factor at most 1/2 so the probe sequences stay short
+        if(size * 2 > slots.length)
+            Rehash(slots.length * 2);
+        return true;
+    }
+
+    /**
+     * @param value Value to remove
+     * @return      True if the value was in the set
+     */
+    public boolean remove(int value){
+        if(value == EMPTY){
+            if(!containsZero)
+                return false;
+            containsZero = false;
+            size--;
+            return true;
+        }
+
+        int mask = slots.length - 1;
+        int i = Mix(value) & mask;
+        while(slots[i] != value){
+            if(slots[i] == EMPTY)
+                return false;
+            i = (i + 1) & mask;
+        }
+
+        // Shifting the following entries of the probe sequence back, so no tombstones are needed
+        int hole = i;
+        i = (i + 1) & mask;
+        while(slots[i] != EMPTY){
+            int home = Mix(slots[i]) & mask;
+            // Moves the entry if its home slot is not between the hole and its current slot
+            if(((i - home) & mask) >= ((i - hole) & mask)){
+                slots[hole] = slots[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes all the values, keeping the allocated array.
+     */
+    public void clear(){
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+        containsZero = false;
+    }
+
+    private void Rehash(int capacity){
+        int[] old = slots;
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int value: old) {
+            if(value == EMPTY)
+                continue;
+            int i = Mix(value) & mask;
+            while(slots[i] != EMPTY)
+                i = (i + 1) & mask;
+            slots[i] = value;
+        }
+    }
+
+    // Scrambles the bits of the value, as consecutive ids would otherwise cluster together
+    private static int Mix(int value){
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Smallest power of two that keeps the load factor at most 1/2
+    private static int CapacityFor(int expectedSize){
+        int capacity = MIN_CAPACITY;
+        while(capacity < expectedSize * 2)
+            capacity <<= 1;
+        return capacity;
+    }
+}
@@ -3,23 +3,32 @@ package com.example.movieroulette;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.ViewModelProvider;
 
 import android.Manifest;
-import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import android.os.StrictMode;
 
+import java.util.Random;
+import java.util.concurrent.Callable;
+
 /**
  * Activity that launches with the application.
  * Contains the main interface with which the user defines the filters he wants in order for the
@@ -33,40 +42,110 @@ public class MainActivity extends AppCompatActivity {
     private static final int REQ_CODE_PERMISSIONS = 750;
     private static final int REQ_CODE_GENRE_LIST = 760;
     private static final int REQ_CODE_MOVIE_DETAILS = 770;
+    private static final int REQ_CODE_IMPORT = 780;
+
+    // Time the filters must stay unchanged before suggestions are loaded for them
+    private static final long FILTER_SETTLE_MS = 600;
+
+    // Random picks favor the popular movies, so most suggestions are still well known
+    private static final boolean RANDOM_WEIGHTED = true;
+
+    // Seeds of the random picks, a pick can be reproduced with the same seed
+    private final Random seeds = new Random();
+
+    // The time to the first frame is only recorded for the first activity of the process
+    private static boolean firstFrameRecorded = false;
 
     // Declaring UI elements
     private Switch yearSwitch;
     private Switch genreSwitch;
     private Switch clearDbSwitch;
+    private Switch randomSwitch;
     private EditText yearInput;
     private Button genreInput;
     private Button searchButton;
     private Button clearDatabase;
+    private Button metricsButton;
+    private Button importButton;
+    private ProgressBar importProgress;
     private TextView appDescrption;
 
-    // Wrapper for sending requests to TMDb api
+    // Holder of the state kept across configuration changes
+    private MainViewModel model;
+
+    // Wrapper for sending requests to TMDb api, kept by the holder
     private TMDB_Wrapper tmdb;
 
+    // Background tasks started by the activity, cancelled when the activity goes away
+    private final TaskRunner.TaskGroup tasks = new TaskRunner.TaskGroup();
+
+    // Loads suggestions for the current filters before the user searches, kept by the holder
+    private SuggestionPrefetcher prefetcher;
+
+    // Shows the state of the import run by the holder
+    private final MainViewModel.ImportListener importListener = new MainViewModel.ImportListener() {
+        @Override
+        public void OnImportProgress(WatchHistoryImporter.Progress progress) {
+            importButton.setEnabled(false);
+            importProgress.setVisibility(View.VISIBLE);
+            int percent = progress == null ? -1 : progress.getPercent();
+            importProgress.setIndeterminate(percent == -1);
+            if(percent != -1)
+                importProgress.setProgress(percent);
+        }
+
+        @Override
+        public void OnImportFinished(WatchHistoryImporter.Progress progress) {
+            importButton.setEnabled(true);
+            importProgress.setVisibility(View.GONE);
+            if(progress == null){
+                Toast.makeText(getBaseContext(), "Could not import the file!", Toast.LENGTH_LONG).show();
+                return;
+            }
+            if(!progress.finished){
+                Toast.makeText(getBaseContext(), "Import interrupted, pick the file again to resume.", Toast.LENGTH_LONG).show();
+                return;
+            }
+            Toast.makeText(getBaseContext(), "Imported " + progress.imported + " movies, "
+                    + progress.unmatched + " rows not found.", Toast.LENGTH_LONG).show();
+            // The queued suggestions are checked against the database when taken
+            prefetcher.Refill();
+        }
+    };
+
+    // Passes the settled filters to the prefetcher
+    private final Runnable applyFilters = new Runnable() {
+        @Override
+        public void run() {
+            UpdatePrefetchFilter();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-
-        // TODO make internet access calls in async
-        // Bad practice to be fixed as this makes the app laggy
-        // ==================== DANGER ZONE ====================
-        if (android.os.Build.VERSION.SDK_INT > 9) {
-            StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
+        RecordFirstFrame();
+
+        // Internet access calls are made in the background through the TaskRunner, so the UI
+        // thread keeps the default policy. Debug builds also log any other blocking call.
+        if (BuildConfig.DEBUG) {
+            StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder()
+                    .detectAll()
+                    .penaltyLog()
+                    .build();
             StrictMode.setThreadPolicy(policy);
         }
-        // ==================== DANGER ZONE ====================
-        //(FT. Kenny Loggins)
 
         // Requesting permission to use internet
         requestInternetPermission();
 
-        // Initializing TMDB_Wrapper for use
-        tmdb = new TMDB_Wrapper(this);
+        // The wrapper and the suggestions loaded ahead are kept by the holder, so a rotation
+        // doesn't create them again
+        model = new ViewModelProvider(this, new ViewModelProvider.NewInstanceFactory()).get(MainViewModel.class);
+        model.SetUp(this);
+        tmdb = model.getTmdb();
+        prefetcher = model.getPrefetcher();
 
         // Referencing UI
         yearSwitch = findViewById(R.id.yearSwitch);
@@ -77,6 +156,10 @@ public class MainActivity extends AppCompatActivity {
         appDescrption = findViewById(R.id.appDescription);
         clearDatabase = findViewById(R.id.clearDB);
         clearDbSwitch = findViewById(R.id.clearDbSwitch);
+        randomSwitch = findViewById(R.id.randomSwitch);
+        metricsButton = findViewById(R.id.metricsButton);
+        importButton = findViewById(R.id.importButton);
+        importProgress = findViewById(R.id.importProgress);
 
         // Initializing state of UI
         yearSwitch.setChecked(false);
@@ -88,18 +171,78 @@ public class MainActivity extends AppCompatActivity {
         clearDbSwitch.setChecked(false);
         clearDatabase.setEnabled(false);
 
+        randomSwitch.setChecked(false);
+
         appDescrption.setText(appDescriptionText);
         clearDatabase.setEnabled(false);
 
+        // The metrics screen is only reachable in debug builds
+        metricsButton.setVisibility(BuildConfig.DEBUG ? View.VISIBLE : View.GONE);
+
         // Assign Listeners
         assignListenersToSwitches();
         assignListenerToButtons();
+        model.AttachImportListener(importListener);
 
-        // Setup Database
-        // Passing an already open database or creating one
-        SQLiteDatabase db = openOrCreateDatabase(DB_Gate.getDbName(), Context.MODE_PRIVATE, null);
-        DB_Gate.getInstance().SetUp(db);
+        // The database is set up in the background by MovieRouletteApplication when the process
+        // starts, the first search waits for it
 
+        // Loading suggestions for the initial filters
+        ScheduleFilterUpdate();
+    }
+
+    /**
+     * Shows the movie found by a search done in the background and enables searching again.
+     * @param movieID   TMDb id of the movie found or null if none was
+     */
+    private void ShowSearchResult(String movieID){
+        searchButton.setEnabled(true);
+        if(movieID == null){
+            Toast.makeText(getBaseContext(), "No movie found!", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        prefetcher.MarkSuggested(movieID);
+        ShowMovieDetails(movieID);
+    }
+
+    /**
+     * Records the time from the start of the process to the first frame of the activity, the
+     * time the user waits for the app on a cold start.
+     */
+    private void RecordFirstFrame(){
+        if(firstFrameRecorded)
+            return;
+        firstFrameRecorded = true;
+
+        // The observer is replaced once the view is attached, so it is looked up again on removal
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                long elapsedMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+                Metrics.getInstance().Histogram("startup.first_frame").Record(elapsedMs * 1000);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        // Writing the queued database changes while the app may be going to the background
+        DB_Gate.getInstance().Flush();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Results of unfinished searches are not needed anymore
+        // The suggestions loaded ahead and the import are kept by the holder until the activity
+        // is finished for good
+        searchButton.removeCallbacks(applyFilters);
+        tasks.CancelAll();
+        model.DetachImportListener();
+        super.onDestroy();
     }
 
     /**
@@ -129,6 +272,21 @@ public class MainActivity extends AppCompatActivity {
                 else{
                     yearInput.setEnabled(true);
                 }
+                ScheduleFilterUpdate();
+            }
+        });
+
+        // Typing a year restarts the wait for the filters to settle
+        yearInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) { }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                ScheduleFilterUpdate();
             }
         });
 
@@ -141,6 +299,7 @@ public class MainActivity extends AppCompatActivity {
                 else{
                     genreInput.setEnabled(true);
                 }
+                ScheduleFilterUpdate();
             }
         });
 
@@ -206,8 +365,59 @@ public class MainActivity extends AppCompatActivity {
                     // Sets the default if filter is not used
                     genre = "";
                 }
-                String movieID = tmdb.GetPopularMovieID(year, genre);
-                ShowMovieDetails(movieID);
+
+                RecordFilterUse(year, genre);
+
+                // A random pick samples the results instead of taking the most popular movie
+                searchButton.removeCallbacks(applyFilters);
+                if(randomSwitch.isChecked()){
+                    searchButton.setEnabled(false);
+                    tasks.Add(tmdb.GetRandomMovieIDAsync(year, genre, RANDOM_WEIGHTED, seeds.nextLong(),
+                            prefetcher.getSessionFilter(), new TaskRunner.Callback<String>() {
+                        @Override
+                        public void onResult(String movieID) {
+                            ShowSearchResult(movieID);
+                        }
+                    }));
+                    return;
+                }
+
+                // A movie loaded ahead for these filters is shown at once, its details and poster
+                // are still in the memory caches
+                Movie prefetched = prefetcher.Poll(year, genre);
+                if(prefetched != null){
+                    ShowMovieDetails(prefetched.getTmdb_id());
+                    return;
+                }
+
+                // Otherwise the search is done in the background and the button is disabled
+                // until it ends, skipping the movies already suggested in the session
+                searchButton.setEnabled(false);
+                tasks.Add(tmdb.GetPopularMovieIDAsync(year, genre, prefetcher.getSessionFilter(), new TaskRunner.Callback<String>() {
+                    @Override
+                    public void onResult(String movieID) {
+                        ShowSearchResult(movieID);
+                    }
+                }));
+            }
+        });
+
+        // Lets the user pick a CSV export of his watch history, e.g. from IMDb
+        importButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent pickFile = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                pickFile.addCategory(Intent.CATEGORY_OPENABLE);
+                pickFile.setType("text/*");
+                startActivityForResult(pickFile, REQ_CODE_IMPORT);
+            }
+        });
+
+        // Opens the metrics screen
+        metricsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivity(new Intent(MainActivity.this, MetricsActivity.class));
             }
         });
 
@@ -223,6 +433,58 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Waits for the filters to stay unchanged for a while before loading suggestions for them,
+     * so typing a year doesn't start a load on every digit.
+     */
+    private void ScheduleFilterUpdate(){
+        searchButton.removeCallbacks(applyFilters);
+        searchButton.postDelayed(applyFilters, FILTER_SETTLE_MS);
+    }
+
+    /**
+     * Passes the current filters to the prefetcher, stopping it while they are incomplete.
+     */
+    private void UpdatePrefetchFilter(){
+        int year = -1;
+        String genre = "";
+
+        if(yearSwitch.isChecked()){
+            try {
+                year = Integer.parseInt(yearInput.getText().toString());
+            }
+            catch(NumberFormatException e){
+                prefetcher.Cancel();
+                return;
+            }
+        }
+        if(genreSwitch.isChecked()){
+            genre = genreInput.getText().toString();
+            if(genre.equals(getString(R.string.select_genre_button))){
+                prefetcher.Cancel();
+                return;
+            }
+        }
+        prefetcher.SetFilter(year, genre);
+    }
+
+    /**
+     * Counts the search in the background, so the caches of the filters used the most are
+     * warmed by CacheWarmingJob.
+     * @param year  Year filter of the search (-1 if N/A)
+     * @param genre Genre filter of the search ("" if N/A)
+     */
+    private void RecordFilterUse(final int year, final String genre){
+        TaskRunner.getInstance().Execute(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if(DB_Gate.getInstance().AwaitReady())
+                    DB_Gate.getInstance().RecordFilterUse(year, genre);
+                return null;
+            }
+        }, null);
+    }
+
     /**
      * Starts new activity for showing the suggested movies details after the searching is completed
      * @param movieID   The TMDb id of the movie
@@ -238,6 +500,8 @@ public class MainActivity extends AppCompatActivity {
     /**
      * After a genre is chosen sets the text of the genre button equal to the name of the genre
      * in order to further use it when searching.
+     * After a suggestion is closed loads another one in its place.
+     * After a watch history file is picked imports it.
      * @param requestCode
      * @param resultCode
      * @param data
@@ -247,8 +511,19 @@ public class MainActivity extends AppCompatActivity {
         if(requestCode == REQ_CODE_GENRE_LIST){
             if(resultCode == RESULT_OK){
                 genreInput.setText(data.getStringExtra("SelectedGenre"));
+                ScheduleFilterUpdate();
             }
         }
+        else if(requestCode == REQ_CODE_IMPORT){
+            if(resultCode == RESULT_OK && data != null && data.getData() != null){
+                model.StartImport(this, data.getData());
+                model.AttachImportListener(importListener);
+            }
+        }
+        else if(requestCode == REQ_CODE_MOVIE_DETAILS){
+            // The shown suggestion was taken from the queue, loading another one
+            prefetcher.Refill();
+        }
     }
 
     // Wall of text to be displayed as minimal guidance for the user.
@@ -256,6 +531,8 @@ public class MainActivity extends AppCompatActivity {
                                         "Movie Roulette is an app that using:\n" +
                                         "       TMDB (https://www.themoviedb.org/)\n" +
                                         "and search filters presents you the most popular movie.\n\n" +
+                                        "   With the random pick on, a random movie is presented instead, " +
+                                        "leaning towards the popular ones.\n\n" +
                                         "   By adding movies to your database you disqualify them from popping " +
                                         "up again.\n\n" +
                                         "   Clicking for more information will open your browser on the IMDb page of the" +
@@ -0,0 +1,139 @@
+package com.example.movieroulette;
+
+import androidx.lifecycle.ViewModel;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.util.concurrent.Future;
+
+/**
+ * Holds the state of MainActivity that outlives configuration changes (e.g. rotation): the
+ * wrapper, the suggestions loaded ahead with the movies suggested during the session, and the
+ * import in progress. A recreated activity attaches to the same holder, so nothing is loaded
+ * again and the import keeps going.
+ * Every method must be called from the UI thread.
+ */
+public final class MainViewModel extends ViewModel {
+
+    /**
+     * Receives the state of the import on the UI thread, while an activity is attached.
+     */
+    public interface ImportListener {
+        /**
+         * @param progress  Progress of the import, null until the first batch is written
+         */
+        void OnImportProgress(WatchHistoryImporter.Progress progress);
+
+        /**
+         * @param progress  Final progress of the import or null if it couldn't start
+         */
+        void OnImportFinished(WatchHistoryImporter.Progress progress);
+    }
+
+    private TMDB_Wrapper tmdb;
+    private SuggestionPrefetcher prefetcher;
+    private WatchHistoryImporter importer;
+
+    // Import in progress, null if none is running
+    private Future<WatchHistoryImporter.Progress> importTask = null;
+    private WatchHistoryImporter.Progress importProgress = null;
+
+    // Result of an import that finished while no activity was attached
+    private boolean importFinishedUnseen = false;
+    private WatchHistoryImporter.Progress importResult = null;
+
+    // Attached activity, null while it is being recreated
+    private ImportListener importListener = null;
+
+    /**
+     * Creates the wrapper and the helpers on the first call, later calls keep them.
+     * @param context   Context used for creating the wrapper
+     */
+    public void SetUp(Context context){
+        if(tmdb != null)
+            return;
+
+        // Its caches are opened by the first request
+        tmdb = new TMDB_Wrapper(context);
+        prefetcher = new SuggestionPrefetcher(tmdb);
+        importer = new WatchHistoryImporter(tmdb);
+    }
+
+    public TMDB_Wrapper getTmdb() { return tmdb; }
+
+    public SuggestionPrefetcher getPrefetcher() { return prefetcher; }
+
+    /**
+     * @return  True if an import is running
+     */
+    public boolean IsImporting(){
+        return importTask != null;
+    }
+
+    /**
+     * Imports the watch history file in the background.
+     * The import is cancelled when the holder is cleared and resumes when the same file is
+     * imported again.
+     * @param context   Context used for reading the file
+     * @param file      Uri of the CSV file picked by the user
+     */
+    public void StartImport(Context context, Uri file){
+        if(importTask != null)
+            return;
+
+        importProgress = null;
+        importTask = importer.ImportAsync(context, file, new WatchHistoryImporter.Listener() {
+            @Override
+            public void OnProgress(WatchHistoryImporter.Progress progress) {
+                importProgress = progress;
+                if(importListener != null)
+                    importListener.OnImportProgress(progress);
+            }
+        }, new TaskRunner.Callback<WatchHistoryImporter.Progress>() {
+            @Override
+            public void onResult(WatchHistoryImporter.Progress progress) {
+                importTask = null;
+                if(importListener != null){
+                    importListener.OnImportFinished(progress);
+                }
+                else{
+                    importFinishedUnseen = true;
+                    importResult = progress;
+                }
+            }
+        });
+    }
+
+    /**
+     * Attaches the activity, handing it the state of the import.
+     * @param listener  Receives the state of the import while attached
+     */
+    public void AttachImportListener(ImportListener listener){
+        importListener = listener;
+        if(importTask != null){
+            listener.OnImportProgress(importProgress);
+        }
+        else if(importFinishedUnseen){
+            importFinishedUnseen = false;
+            listener.OnImportFinished(importResult);
+            importResult = null;
+        }
+    }
+
+    /**
+     * Detaches the activity, e.g. when it is destroyed for being recreated.
+     */
+    public void DetachImportListener(){
+        importListener = null;
+    }
+
+    @Override
+    protected void onCleared() {
+        importListener = null;
+        if(importTask != null)
+            importTask.cancel(true);
+        if(prefetcher != null)
+            prefetcher.Cancel();
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.movieroulette;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Singleton registry of the metrics of the hot paths (network, parsing, database, decoding).
+ * Counters and histograms are created on first use by name and updated without locking, so
+ * they can stay in the hot paths of release builds. They live as long as the process, so hot
+ * paths can keep a reference to them instead of looking them up every time.
+ * Gauges read values kept elsewhere (e.g. the counters of the caches) when the metrics are shown.
+ * The metrics are shown by MetricsActivity and can be dumped as JSON for comparing builds.
+ */
+public final class Metrics {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private static Metrics instance = null;
+
+    private Metrics(){
+        // Private Constructor to make singleton
+    }
+
+    public static synchronized Metrics getInstance(){
+        if(instance == null){
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    /**
+     * @return  Start time of a measurement, passed to Histogram.RecordSince
+     */
+    public static long Start(){
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns the counter of the name, creating it on first use.
+     * @param name  Name of the counter, dot separated (e.g. net.bytes_received)
+     * @return      The counter
+     */
+    public Counter Counter(String name){
+        Counter counter = counters.get(name);
+        if(counter == null){
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if(counter == null)
+                counter = created;
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram of the name, creating it on first use.
+     * @param name  Name of the histogram, dot separated (e.g. http.discover)
+     * @return      The histogram
+     */
+    public Histogram Histogram(String name){
+        Histogram histogram = histograms.get(name);
+        if(histogram == null){
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if(histogram == null)
+                histogram = created;
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers a gauge, replacing any previous one of the name.
+     * @param name  Name of the gauge
+     * @param gauge Reads the current value
+     */
+    public void RegisterGauge(String name, Gauge gauge){
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Formats the metrics as readable text, one metric per line sorted by name.
+     * @return  The text
+     */
+    public String ToText(){
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry: new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            text.append(entry.getKey())
+                    .append("\n    n=").append(histogram.getCount())
+                    .append(" mean=").append(histogram.getMean())
+                    .append(" p50=").append(histogram.getPercentile(0.50))
+                    .append(" p90=").append(histogram.getPercentile(0.90))
+                    .append(" p99=").append(histogram.getPercentile(0.99))
+                    .append(" max=").append(histogram.getMax())
+                    .append('\n');
+        }
+        for (Map.Entry<String, Long> entry: ReadValues().entrySet()) {
+            text.append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Formats the metrics as JSON, with the build they were taken on.
+     * @return  The JSON text
+     */
+    public String ToJson(){
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"build\": {\"version\": ").append(Quote(BuildConfig.VERSION_NAME))
+                .append(", \"code\": ").append(BuildConfig.VERSION_CODE)
+                .append(", \"type\": ").append(Quote(BuildConfig.BUILD_TYPE)).append("},\n");
+        json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+
+        json.append("  \"histograms\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Histogram> entry: new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            json.append(separator).append("    ").append(Quote(entry.getKey())).append(": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"sum\": ").append(histogram.getSum())
+                    .append(", \"mean\": ").append(histogram.getMean())
+                    .append(", \"p50\": ").append(histogram.getPercentile(0.50))
+                    .append(", \"p90\": ").append(histogram.getPercentile(0.90))
+                    .append(", \"p99\": ").append(histogram.getPercentile(0.99))
+                    .append(", \"max\": ").append(histogram.getMax())
+                    .append('}');
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"values\": {");
+        separator = "\n";
+        for (Map.Entry<String, Long> entry: ReadValues().entrySet()) {
+            json.append(separator).append("    ").append(Quote(entry.getKey())).append(": ").append(entry.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Writes the metrics as JSON into a new file of the directory.
+     * Must not be called from the UI thread.
+     * @param directory Directory of the file, created if missing
+     * @return          The file written
+     * @throws IOException  If the file could not be written
+     */
+    public File DumpToFile(File directory) throws IOException {
+        if(!directory.exists() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+
+        File file = new File(directory, "metrics-" + BuildConfig.VERSION_NAME + "-" + System.currentTimeMillis() + ".json");
+        try(Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8)){
+            out.write(ToJson());
+        }
+        return file;
+    }
+
+    // Values of the counters and gauges, sorted by name
+    private TreeMap<String, Long> ReadValues(){
+        TreeMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry: counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        for (Map.Entry<String, Gauge> entry: gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return values;
+    }
+
+    private static String Quote(String value){
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Reads a value kept outside of the registry.
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    /**
+     * Counter that only goes up.
+     */
+    public static final class Counter {
+
+        private final AtomicLong value = new AtomicLong();
+
+        public void Increment() { value.incrementAndGet(); }
+
+        public void Add(long amount) { value.addAndGet(amount); }
+
+        public long getValue() { return value.get(); }
+    }
+
+    /**
+     * Histogram of values with buckets growing by powers of two, so recording is a few atomic
+     * additions. Latencies are recorded in microseconds, other values (e.g. pages) as they are.
+     * Percentiles are approximated by the upper bound of their bucket.
+     */
+    public static final class Histogram {
+
+        // Bucket 0 holds 0, bucket i the values from 2^(i-1) up to 2^i - 1
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records the time passed since the measurement started, in microseconds.
+         * @param startNanos    Value returned by Metrics.Start
+         */
+        public void RecordSince(long startNanos){
+            Record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        /**
+         * @param value     Value to record, negative values are recorded as 0
+         */
+        public void Record(long value){
+            value = Math.max(0, value);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long currentMax;
+            while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value));
+        }
+
+        public long getCount() { return count.get(); }
+
+        public long getSum() { return sum.get(); }
+
+        public long getMax() { return max.get(); }
+
+        public long getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : sum.get() / n;
+        }
+
+        /**
+         * @param fraction  Percentile as a fraction (e.g. 0.9)
+         * @return          Upper bound of the bucket holding the percentile, at most the max
+         */
+        public long getPercentile(double fraction){
+            long n = count.get();
+            if(n == 0)
+                return 0;
+            long rank = (long) Math.ceil(n * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if(seen >= rank)
+                    return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+            }
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.movieroulette;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Debug screen showing the metrics of the hot paths (network, parsing, database, decoding).
+ * The metrics can be dumped as JSON into the app's external files, for comparing builds offline
+ * (e.g. pulled with adb from Android/data/com.example.movieroulette/files/metrics).
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private TextView metricsText;
+    private Button dumpButton;
+
+    // Background tasks started by the activity, cancelled when the activity goes away
+    private final TaskRunner.TaskGroup tasks = new TaskRunner.TaskGroup();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        metricsText = findViewById(R.id.metricsText);
+        dumpButton = findViewById(R.id.metricsDumpButton);
+
+        // Writes the metrics to a file in the background
+        dumpButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                tasks.Add(TaskRunner.getInstance().Execute(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        try {
+                            // Resolving the directory touches the disk, so it is done here too
+                            File files = getExternalFilesDir(null);
+                            if(files == null)
+                                throw new IOException("External storage is not available");
+                            return Metrics.getInstance().DumpToFile(new File(files, "metrics")).getAbsolutePath();
+                        }
+                        catch(IOException e){
+                            System.out.println(e.getMessage());
+                            return null;
+                        }
+                    }
+                }, new TaskRunner.Callback<String>() {
+                    @Override
+                    public void onResult(String path) {
+                        if(path == null){
+                            Toast.makeText(getBaseContext(), "Could not dump the metrics!", Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        Toast.makeText(getBaseContext(), "Metrics dumped to " + path, Toast.LENGTH_LONG).show();
+                    }
+                }));
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Latencies are in microseconds
+        metricsText.setText(Metrics.getInstance().ToText());
+    }
+
+    @Override
+    protected void onDestroy() {
+        tasks.CancelAll();
+        super.onDestroy();
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.movieroulette;
 
-import android.content.Context;
 import android.graphics.Bitmap;
 import java.util.ArrayList;
 
@@ -9,29 +8,14 @@ import java.util.ArrayList;
  */
 public class Movie{
     private ArrayList<String> genres;
+    private ArrayList<String> cast;
+    private ArrayList<String> directors;
     private String title;
     private String overview;
     private Bitmap poster;
     private String imdbID;
     private String tmdb_id;
-
-    /**
-     * Overloaded constructor to create a full movie object through the API using its id
-     * @param id        TMDb id of the movie
-     * @param context   Context of an activity in order to use a TMDB_Wrapper object
-     */
-    public Movie(String id, Context context){
-        // Wrapper for sending requests to TMDb api
-        TMDB_Wrapper tmdb = new TMDB_Wrapper(context);
-        Movie temp = tmdb.GetMovieDetails(id);
-
-        genres = temp.getGenres();
-        title = temp.getTitle();
-        overview = temp.getOverview();
-        poster = temp.getPoster();
-        imdbID = temp.getImdbID();
-        tmdb_id = temp.getTmdb_id();
-    }
+    private String posterPath;
 
     public Movie(){
 
@@ -58,6 +42,12 @@ public class Movie{
 
     public String getTmdb_id() { return tmdb_id; }
 
+    public String getPosterPath() { return posterPath; }
+
+    public ArrayList<String> getCast() { return cast; }
+
+    public ArrayList<String> getDirectors() { return directors; }
+
     // Setters
     public void setGenres(ArrayList<String> genres) {
         this.genres = genres;
@@ -78,4 +68,10 @@ public class Movie{
     public void setImdbID(String imdbID) { this.imdbID = imdbID; }
 
     public void setTmdb_id(String tmdb_id) { this.tmdb_id = tmdb_id; }
+
+    public void setPosterPath(String posterPath) { this.posterPath = posterPath; }
+
+    public void setCast(ArrayList<String> cast) { this.cast = cast; }
+
+    public void setDirectors(ArrayList<String> directors) { this.directors = directors; }
 }
@@ -0,0 +1,274 @@
+package com.example.movieroulette;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level cache of the parsed movie details, keyed by TMDb id.
+ * A bounded amount of movies is kept in memory, evicting the least recently used ones, and
+ * every movie is also written to a DiskLruCache as a compact binary record, which is read
+ * back without any JSON parsing. Records older than the TTL are dropped when read.
+ * Posters are not part of the records, they are kept by the PosterCache.
+ * Movies are copied in and out of the cache, so callers can change the ones they get.
+ */
+public final class MovieCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Version of the records' format, records of other versions are ignored
+    private static final int FORMAT_VERSION = 1;
+
+    private final DiskLruCache disk;
+    private final long ttlMs;
+    private final int maxMemoryEntries;
+
+    // Records by id, iterated from least to most recently used
+    private final LinkedHashMap<String, Record> memory;
+
+    // Counters of the cache's use
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @param directory         Directory of the disk level
+     * @param diskBytes         Maximum size of the records on disk
+     * @param maxMemoryEntries  Maximum amount of movies kept in memory
+     * @param ttlMs             Time a movie is served for after it was stored
+     */
+    public MovieCache(File directory, long diskBytes, int maxMemoryEntries, long ttlMs){
+        this.disk = new DiskLruCache(directory, diskBytes);
+        this.ttlMs = ttlMs;
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.memory = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+                return size() > MovieCache.this.maxMemoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached movie, looking in memory and then on disk.
+     * Must not be called from the UI thread.
+     * @param id    TMDb id of the movie
+     * @return      A copy of the movie without its poster or null if it isn't cached or expired
+     */
+    public Movie Get(String id){
+        Movie movie = Peek(id);
+        if(movie != null)
+            return movie;
+
+        Record record = Read(id);
+        if(record == null || IsExpired(record)){
+            if(record != null){
+                expired.incrementAndGet();
+                disk.Remove(id);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        synchronized (memory) {
+            memory.put(id, record);
+        }
+        diskHits.incrementAndGet();
+        bytesSaved.addAndGet(record.sourceBytes);
+        return Copy(record.movie);
+    }
+
+    /**
+     * Returns the movie if it is in memory, without touching the disk, so it can be called from
+     * the UI thread. Misses are left to Get, so they are not counted.
+     * @param id    TMDb id of the movie
+     * @return      A copy of the movie without its poster or null if it isn't in memory or expired
+     */
+    public Movie Peek(String id){
+        Record record;
+        synchronized (memory) {
+            record = memory.get(id);
+            if(record != null && IsExpired(record)){
+                memory.remove(id);
+                expired.incrementAndGet();
+                record = null;
+            }
+        }
+        if(record == null)
+            return null;
+        memoryHits.incrementAndGet();
+        bytesSaved.addAndGet(record.sourceBytes);
+        return Copy(record.movie);
+    }
+
+    /**
+     * Stores the movie in memory and on disk. Must not be called from the UI thread.
+     * @param movie         Parsed details of the movie, the poster is left out
+     * @param sourceBytes   Size of the response the movie was parsed from, counted as saved on
+     *                      every hit
+     */
+    public void Put(Movie movie, long sourceBytes){
+        if(movie.getTmdb_id() == null)
+            return;
+
+        Record record = new Record();
+        record.movie = Copy(movie);
+        record.storedAt = System.currentTimeMillis();
+        record.sourceBytes = Math.max(0, sourceBytes);
+        synchronized (memory) {
+            memory.put(movie.getTmdb_id(), record);
+        }
+        Write(movie.getTmdb_id(), record);
+    }
+
+    public long getMemoryHitCount() { return memoryHits.get(); }
+    public long getDiskHitCount() { return diskHits.get(); }
+    public long getMissCount() { return misses.get(); }
+    public long getExpiredCount() { return expired.get(); }
+    public long getBytesSaved() { return bytesSaved.get(); }
+    public long getSize() { return disk.getSize(); }
+
+    private boolean IsExpired(Record record){
+        return System.currentTimeMillis() - record.storedAt >= ttlMs;
+    }
+
+    private Record Read(String id){
+        InputStream stream = disk.Read(id);
+        if(stream == null)
+            return null;
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(stream))){
+            if(in.readInt() != FORMAT_VERSION || !id.equals(ReadString(in))){
+                disk.Remove(id);
+                return null;
+            }
+            Record record = new Record();
+            record.storedAt = in.readLong();
+            record.sourceBytes = in.readLong();
+            Movie movie = new Movie();
+            movie.setTmdb_id(id);
+            movie.setTitle(ReadString(in));
+            movie.setOverview(ReadString(in));
+            movie.setImdbID(ReadString(in));
+            movie.setPosterPath(ReadString(in));
+            movie.setGenres(ReadList(in));
+            movie.setCast(ReadList(in));
+            movie.setDirectors(ReadList(in));
+            record.movie = movie;
+            return record;
+        }
+        catch(IOException e){
+            // Corrupted record
+            System.out.println(e.getMessage());
+            disk.Remove(id);
+            return null;
+        }
+    }
+
+    private void Write(String id, Record record){
+        DiskLruCache.Editor editor = disk.Edit(id);
+        if(editor == null)
+            return;
+
+        try {
+            DataOutputStream out = new DataOutputStream(editor);
+            Movie movie = record.movie;
+            out.writeInt(FORMAT_VERSION);
+            WriteString(out, id);
+            out.writeLong(record.storedAt);
+            out.writeLong(record.sourceBytes);
+            WriteString(out, movie.getTitle());
+            WriteString(out, movie.getOverview());
+            WriteString(out, movie.getImdbID());
+            WriteString(out, movie.getPosterPath());
+            WriteList(out, movie.getGenres());
+            WriteList(out, movie.getCast());
+            WriteList(out, movie.getDirectors());
+            out.flush();
+            editor.Commit();
+        }
+        catch(IOException e){
+            System.out.println(e.getMessage());
+            editor.Abort();
+        }
+    }
+
+    // Strings are written as their length in UTF-8 bytes followed by the bytes, -1 for null
+    private static void WriteString(DataOutputStream out, String value) throws IOException {
+        if(value == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String ReadString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length == -1)
+            return null;
+        if(length < 0)
+            throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // Lists are written as their size followed by their strings, -1 for null
+    private static void WriteList(DataOutputStream out, ArrayList<String> values) throws IOException {
+        if(values == null){
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value: values) {
+            WriteString(out, value);
+        }
+    }
+
+    private static ArrayList<String> ReadList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if(size == -1)
+            return null;
+        if(size < 0)
+            throw new IOException("Invalid list size " + size);
+        ArrayList<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(ReadString(in));
+        }
+        return values;
+    }
+
+    // Copies the details of the movie, leaving out the poster
+    private static Movie Copy(Movie movie){
+        Movie copy = new Movie();
+        copy.setTmdb_id(movie.getTmdb_id());
+        copy.setTitle(movie.getTitle());
+        copy.setOverview(movie.getOverview());
+        copy.setImdbID(movie.getImdbID());
+        copy.setPosterPath(movie.getPosterPath());
+        copy.setGenres(movie.getGenres() == null ? null : new ArrayList<>(movie.getGenres()));
+        copy.setCast(movie.getCast() == null ? null : new ArrayList<>(movie.getCast()));
+        copy.setDirectors(movie.getDirectors() == null ? null : new ArrayList<>(movie.getDirectors()));
+        return copy;
+    }
+
+    /**
+     * Cached movie along with the time it was stored.
+     */
+    private static final class Record {
+        Movie movie;
+        long storedAt;
+        long sourceBytes;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.movieroulette;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Singleton class keeping a local mirror of the most popular movies of TMDb's discover endpoint.
+ * The first pages of the unfiltered discover results are stored in the catalog tables of the
+ * database and refreshed page by page once they get stale, so searches can be answered without
+ * a network round trip.
+ * As the mirrored movies are the most popular ones overall, a movie of the catalog matching the
+ * filters is also the most popular one TMDb would return for them. When no movie of the catalog
+ * matches, the search has to go to TMDb.
+ */
+public final class MovieCatalog {
+
+    // Amount of discover pages mirrored, TMDb returns 20 movies per page
+    public static final int PAGES = 25;
+
+    // Time after which a mirrored page is fetched again
+    public static final long TTL_MS = 24 * 60 * 60 * 1000L;
+
+    // Movies not seen in any page for this long dropped out of the mirrored pages
+    private static final long PRUNE_AFTER_MS = 7 * TTL_MS;
+
+    // Pages fetched by a single refresh, the rest are left for the next one
+    private static final int MAX_PAGES_PER_REFRESH = 10;
+
+    private static MovieCatalog instance = null;
+
+    private MovieCatalog(){
+        // Private Constructor to make singleton
+    }
+
+    public static synchronized MovieCatalog getInstance(){
+        if(instance == null){
+            instance = new MovieCatalog();
+        }
+        return instance;
+    }
+
+    /**
+     * Fetches again the mirrored pages that are missing or stale, oldest first.
+     * Must not be called from the UI thread.
+     * @param tmdb  Wrapper used for fetching the pages
+     * @return      Amount of pages refreshed
+     */
+    public synchronized int Refresh(TMDB_Wrapper tmdb){
+        final HashMap<Integer, Long> fetched = DB_Gate.getInstance().GetCatalogPages();
+        long now = System.currentTimeMillis();
+
+        // Missing pages come first, then the stale ones from the oldest
+        ArrayList<Integer> stale = new ArrayList<>();
+        ArrayList<Integer> expired = new ArrayList<>();
+        for (int page = 1; page <= PAGES; page++) {
+            Long fetchedAt = fetched.get(page);
+            if(fetchedAt == null)
+                stale.add(page);
+            else if(now - fetchedAt > TTL_MS)
+                expired.add(page);
+        }
+        Collections.sort(expired, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(fetched.get(a), fetched.get(b));
+            }
+        });
+        stale.addAll(expired);
+
+        int refreshed = 0;
+        for (int page: stale) {
+            if(refreshed == MAX_PAGES_PER_REFRESH || Thread.currentThread().isInterrupted())
+                break;
+            ArrayList<TMDB_Parser.DiscoverMovie> movies = tmdb.GetDiscoverMovies(page);
+            if(movies == null)
+                break;
+            DB_Gate.getInstance().StoreCatalogPage(page, movies);
+            refreshed++;
+        }
+
+        DB_Gate.getInstance().PruneCatalog(now - PRUNE_AFTER_MS);
+        return refreshed;
+    }
+
+    /**
+     * Finds the most popular movie of the catalog that matches the filters and passes the filter.
+     * Movies last seen in a page fetched more than TTL_MS ago are not trusted, if one of them
+     * would be picked the catalog can't answer. Must not be called from the UI thread.
+     * @param year      Year of release of the movie (-1 if N/A)
+     * @param genreId   Genre the movie must include (-1 if N/A)
+     * @param filter    Decides which movies are disqualified, besides the ones in the database
+     * @return          The movie's id or null if the catalog can't answer for the filters
+     */
+    public String FindMovie(int year, int genreId, TMDB_Parser.IdFilter filter){
+        return DB_Gate.getInstance().FindCatalogMovie(year, genreId, filter, System.currentTimeMillis() - TTL_MS);
+    }
+}
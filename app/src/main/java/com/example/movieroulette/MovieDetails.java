@@ -1,11 +1,13 @@
 package com.example.movieroulette;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
@@ -16,7 +18,11 @@ import android.widget.Toast;
 /**
  * Activity for showing information about the movie selected.
  * Gives the option to view more information via IMDb.
- * Contains the movie's title, overview, genres and poster.
+ * Contains the movie's title, overview, genres, credits and poster.
+ * The details are shown as soon as they arrive, while the poster is still downloading behind a
+ * placeholder, which stays if the poster can't be retrieved.
+ * The movie and its loads are kept by a MovieDetailsViewModel, so a rotation re-binds the
+ * screen without loading anything again.
  * The user can add the movie to the database in order to not see it again as a suggestion
  * or can return to the MainActivity.
  */
@@ -29,6 +35,7 @@ public class MovieDetails extends AppCompatActivity {
     private TextView title;
     private TextView genres;
     private TextView overview;
+    private TextView credits;
     private ImageView poster;
     private Button imdbButton;
     private Button backButton;
@@ -38,6 +45,31 @@ public class MovieDetails extends AppCompatActivity {
     // Movie object to access the information for showing
     private Movie movie;
 
+    // Holder of the movie and its loads, kept across configuration changes
+    private MovieDetailsViewModel model;
+
+    // Shows the results of the holder's loads
+    private final MovieDetailsViewModel.Listener modelListener = new MovieDetailsViewModel.Listener() {
+        @Override
+        public void OnMovieLoaded(Movie loaded) {
+            movie = loaded;
+            showMovieDetails();
+            imdbButton.setEnabled(true);
+            addButton.setEnabled(true);
+        }
+
+        @Override
+        public void OnPosterLoaded(Bitmap loaded) {
+            showPoster();
+        }
+
+        @Override
+        public void OnLoadFailed() {
+            Toast.makeText(getBaseContext(), "Could not load the movie!", Toast.LENGTH_SHORT).show();
+            finish();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -47,6 +79,7 @@ public class MovieDetails extends AppCompatActivity {
         title = findViewById(R.id.titleText);
         genres = findViewById(R.id.genresText);
         overview = findViewById(R.id.overviewText);
+        credits = findViewById(R.id.creditsText);
         poster = findViewById(R.id.posterImage);
         imdbButton = findViewById(R.id.imdbButton);
         backButton = findViewById(R.id.backButton);
@@ -56,12 +89,32 @@ public class MovieDetails extends AppCompatActivity {
         // Setup listeners
         assignButtonListeners();
 
-        // Get movie from extras
-        movie = new Movie(getIntent().getStringExtra("Movie"), this);
+        // Buttons that need the movie stay disabled until it's loaded
+        imdbButton.setEnabled(false);
+        addButton.setEnabled(false);
 
-        showMovieDetails();
+        // Get movie from extras. After a rotation the holder already has it, or its load in
+        // progress, so nothing is started again
+        String movieID = getIntent().getStringExtra("Movie");
+        model = new ViewModelProvider(this, new ViewModelProvider.NewInstanceFactory()).get(MovieDetailsViewModel.class);
+        model.Load(this, movieID);
+        model.Attach(modelListener);
+    }
 
+    @Override
+    protected void onStop() {
+        // Writing the queued database changes while the app may be going to the background
+        DB_Gate.getInstance().Flush();
+        super.onStop();
+    }
 
+    @Override
+    protected void onDestroy() {
+        // The holder keeps loading while the activity is recreated, and releases the poster
+        // once the activity is finished for good
+        model.Detach();
+        poster.setImageBitmap(null);
+        super.onDestroy();
     }
 
     /**
@@ -70,13 +123,34 @@ public class MovieDetails extends AppCompatActivity {
     private void showMovieDetails(){
         title.setText(movie.getTitle());
         overview.setText(movie.getOverview());
-        poster.setImageBitmap(Bitmap.createScaledBitmap(movie.getPoster(), 250, 370, true));
+        showPoster();
 
         StringBuilder genresString = new StringBuilder("|");
         for (String genre: movie.getGenres()) {
             genresString.append(genre + "|");
         }
         genres.setText(genresString.toString());
+
+        // Credits came along with the details, sections without names are left out
+        StringBuilder creditsString = new StringBuilder();
+        if(!movie.getDirectors().isEmpty())
+            creditsString.append("Directed by ").append(TextUtils.join(", ", movie.getDirectors()));
+        if(!movie.getCast().isEmpty()){
+            if(creditsString.length() > 0)
+                creditsString.append('\n');
+            creditsString.append("Starring ").append(TextUtils.join(", ", movie.getCast()));
+        }
+        credits.setText(creditsString.toString());
+        credits.setVisibility(creditsString.length() > 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Shows the poster of the movie if it has been retrieved, keeping the placeholder otherwise.
+     */
+    private void showPoster(){
+        // The poster is already decoded at the size of the view
+        if(movie.getPoster() != null)
+            poster.setImageBitmap(movie.getPoster());
     }
 
     /**
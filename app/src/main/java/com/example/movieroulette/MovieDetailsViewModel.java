@@ -0,0 +1,133 @@
+package com.example.movieroulette;
+
+import androidx.lifecycle.ViewModel;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * Holds the movie shown by MovieDetails along with its loads, so they survive configuration
+ * changes (e.g. rotation). A recreated activity attaches to the same holder and is given the
+ * movie and poster already loaded, with no request or decoding done again.
+ * The loads are cancelled once the activity is finished for good.
+ * Every method must be called from the UI thread.
+ */
+public final class MovieDetailsViewModel extends ViewModel {
+
+    /**
+     * Receives the results of the loads on the UI thread, while an activity is attached.
+     */
+    public interface Listener {
+        void OnMovieLoaded(Movie movie);
+        void OnPosterLoaded(Bitmap poster);
+        void OnLoadFailed();
+    }
+
+    // Loads started for the movie, cancelled when the holder is cleared
+    private final TaskRunner.TaskGroup tasks = new TaskRunner.TaskGroup();
+
+    private TMDB_Wrapper tmdb;
+
+    // Set once the load has started, so recreated activities don't start it again
+    private boolean started = false;
+    private boolean failed = false;
+    private Movie movie = null;
+
+    // Attached activity, null while it is being recreated
+    private Listener listener = null;
+
+    /**
+     * Starts loading the movie, unless it was already started by a previous activity.
+     * A movie still in memory (e.g. loaded ahead by the search) is taken at once.
+     * @param context   Context used for creating the wrapper
+     * @param movieID   TMDb id of the movie
+     */
+    public void Load(Context context, String movieID){
+        if(started)
+            return;
+        started = true;
+        tmdb = new TMDB_Wrapper(context);
+
+        Movie cached = TMDB_Wrapper.PeekMovieInfo(movieID);
+        if(cached != null){
+            cached.setPoster(TMDB_Wrapper.PeekPoster(cached.getPosterPath()));
+            SetMovie(cached);
+            return;
+        }
+
+        // Otherwise its details are loaded in the background and shown without waiting for the
+        // poster, whose download starts as soon as its path arrives
+        tasks.Add(tmdb.GetMovieInfoAsync(movieID, new TaskRunner.Callback<Movie>() {
+            @Override
+            public void onResult(Movie result) {
+                if(result == null){
+                    failed = true;
+                    if(listener != null)
+                        listener.OnLoadFailed();
+                    return;
+                }
+                SetMovie(result);
+            }
+        }));
+    }
+
+    /**
+     * Attaches the activity, handing it the results already loaded.
+     * @param listener  Receives the results while attached
+     */
+    public void Attach(Listener listener){
+        this.listener = listener;
+        if(movie != null)
+            listener.OnMovieLoaded(movie);
+        else if(failed)
+            listener.OnLoadFailed();
+    }
+
+    /**
+     * Detaches the activity, e.g. when it is destroyed for being recreated.
+     */
+    public void Detach(){
+        listener = null;
+    }
+
+    @Override
+    protected void onCleared() {
+        tasks.CancelAll();
+        listener = null;
+
+        // The poster's bitmap can be reused for decoding another one once it leaves the cache
+        if(movie != null && movie.getPoster() != null)
+            TMDB_Wrapper.getPosterCache().MarkHidden(movie.getPoster());
+    }
+
+    private void SetMovie(Movie loaded){
+        movie = loaded;
+        // The poster is kept from being reused for as long as the holder may show it
+        if(movie.getPoster() != null)
+            TMDB_Wrapper.getPosterCache().MarkDisplayed(movie.getPoster());
+        if(listener != null)
+            listener.OnMovieLoaded(movie);
+        if(movie.getPoster() == null)
+            LoadPoster();
+    }
+
+    /**
+     * Fills in the poster once it is retrieved. The placeholder stays if it can't be.
+     */
+    private void LoadPoster(){
+        if(movie.getPosterPath() == null)
+            return;
+
+        tasks.Add(tmdb.GetPosterAsync(movie.getPosterPath(), new TaskRunner.Callback<Bitmap>() {
+            @Override
+            public void onResult(Bitmap result) {
+                if(result == null)
+                    return;
+                TMDB_Wrapper.getPosterCache().MarkDisplayed(result);
+                movie.setPoster(result);
+                if(listener != null)
+                    listener.OnPosterLoaded(result);
+            }
+        }));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.movieroulette;
+
+import android.app.Application;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Application class, set up once when the process starts before any activity.
+ * Opens the database and loads in the background the data the activities need, so it is
+ * ready by the time the user asks for it without delaying the first frame.
+ */
+public class MovieRouletteApplication extends Application {
+
+    // Work started in the background by onCreate, null until the process has started
+    private static volatile Future<Void> startup = null;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        long start = Metrics.Start();
+
+        // Setup Database in the background, the first search waits for it
+        DB_Gate.getInstance().Open(this);
+
+        // Loading the stored genres, refreshing them from TMDb when they are missing or expired,
+        // then refreshing the stale pages of the local catalog
+        final TMDB_Wrapper tmdb = new TMDB_Wrapper(this);
+        startup = TaskRunner.getInstance().Execute(new Callable<Void>() {
+            @Override
+            public Void call() {
+                DB_Gate.getInstance().AwaitReady();
+                GenreRegistry.getInstance().WarmUp(tmdb);
+                MovieCatalog.getInstance().Refresh(tmdb);
+
+                // Warming the caches of the most used filters while the device is charging
+                CacheWarmingJob.Schedule(MovieRouletteApplication.this);
+                return null;
+            }
+        }, null);
+
+        Metrics.getInstance().Histogram("startup.application_create").RecordSince(start);
+    }
+
+    /**
+     * Waits for the database to be set up and for the work started in the background by
+     * onCreate to end. Used by the instrumented tests before they replace the database or the
+     * transport, so the startup work can't write into theirs. Must not be called from the UI thread.
+     * @param timeoutMs Longest wait
+     * @return          True if the startup work has ended
+     */
+    public static boolean AwaitStartup(long timeoutMs){
+        Future<Void> work = startup;
+        if(work == null)
+            return false;
+
+        try {
+            work.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return DB_Gate.getInstance().AwaitReady();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch(ExecutionException | TimeoutException | CancellationException e){
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+}
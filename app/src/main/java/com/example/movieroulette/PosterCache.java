@@ -0,0 +1,216 @@
+package com.example.movieroulette;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Two level cache of the movies' posters.
+ * Decoded posters are kept in a memory LruCache sized by bytes and the encoded images in a
+ * DiskLruCache, where they are streamed straight from the network. A poster found in either
+ * level is returned without any request. Concurrent requests for the same poster share a
+ * single download.
+ * Bitmaps evicted from memory are left to the garbage collector, as a caller of Get may still be
+ * about to show them. Only displayed bitmaps go back to the BitmapPool, once the last holder hides
+ * them and they are no longer cached, as nothing can hand them out anymore.
+ */
+public final class PosterCache {
+
+    private static final int IMAGE_TIMEOUT_MS = 15000;
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    // Latencies of the stages of loading a poster
+    private static final Metrics.Histogram downloadLatency = Metrics.getInstance().Histogram("poster.download");
+    private static final Metrics.Histogram decodeLatency = Metrics.getInstance().Histogram("poster.decode");
+
+    private final LruCache<String, Bitmap> memory;
+    private final DiskLruCache disk;
+    private final PosterDecoder decoder;
+
+    // Downloads in progress by poster URL, shared by the callers asking for the same poster
+    private final ConcurrentHashMap<String, FutureTask<Bitmap>> inFlight = new ConcurrentHashMap<>();
+
+    // Bitmaps currently shown on screen with the amount of holders showing them
+    private final IdentityHashMap<Bitmap, Integer> displayed = new IdentityHashMap<>();
+
+    /**
+     * @param directory     Directory of the disk cache
+     * @param diskBytes     Maximum size of the encoded posters on disk
+     * @param memoryBytes   Maximum size of the decoded posters in memory
+     * @param decoder       Decoder of the posters
+     */
+    public PosterCache(File directory, long diskBytes, int memoryBytes, PosterDecoder decoder){
+        this.disk = new DiskLruCache(directory, diskBytes);
+        this.decoder = decoder;
+        this.memory = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the decoded poster, looking in memory, then on disk and finally on the network.
+     * Must not be called from the UI thread.
+     * @param posterURL     URL of the poster
+     * @param transport     Transport used if the poster has to be downloaded
+     * @return              The decoded poster or null if it could not be retrieved
+     */
+    public Bitmap Get(final String posterURL, final HttpTransport transport){
+        Bitmap bitmap = memory.get(posterURL);
+        if(bitmap != null)
+            return bitmap;
+
+        // Only the first caller loads the poster, the rest wait for its result
+        FutureTask<Bitmap> load = new FutureTask<>(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return Load(posterURL, transport);
+            }
+        });
+        FutureTask<Bitmap> existing = inFlight.putIfAbsent(posterURL, load);
+        if(existing != null){
+            load = existing;
+        }
+        else {
+            try {
+                load.run();
+            }
+            finally {
+                inFlight.remove(posterURL);
+            }
+        }
+
+        try {
+            return load.get();
+        }
+        catch(ExecutionException e){
+            System.out.println(e.getMessage());
+            return null;
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the poster if it is decoded in memory, without touching the disk, so it can be
+     * called from the UI thread.
+     * @param posterURL     URL of the poster
+     * @return              The decoded poster or null if it isn't in memory
+     */
+    public Bitmap Peek(String posterURL){
+        return memory.get(posterURL);
+    }
+
+    /**
+     * Marks the bitmap as shown on screen, so it isn't reused while displayed.
+     * Every call must be matched by a call to MarkHidden.
+     * @param bitmap    Poster returned by Get
+     */
+    public void MarkDisplayed(Bitmap bitmap){
+        if(bitmap == null)
+            return;
+        synchronized (displayed) {
+            Integer holders = displayed.get(bitmap);
+            displayed.put(bitmap, holders == null ? 1 : holders + 1);
+        }
+    }
+
+    /**
+     * Marks the bitmap as no longer shown by one of its holders. Once none shows it, it is
+     * reused if it was evicted in the meantime.
+     * @param bitmap    Poster previously passed to MarkDisplayed
+     */
+    public void MarkHidden(Bitmap bitmap){
+        if(bitmap == null)
+            return;
+        synchronized (displayed) {
+            Integer holders = displayed.get(bitmap);
+            if(holders == null)
+                return;
+            if(holders > 1){
+                displayed.put(bitmap, holders - 1);
+                return;
+            }
+            displayed.remove(bitmap);
+
+            // A cached bitmap can still be handed out by Get or Peek, it is left to the
+            // garbage collector once evicted
+            for (Bitmap cached: memory.snapshot().values()) {
+                if(cached == bitmap)
+                    return;
+            }
+        }
+        BitmapPool.getInstance().Put(bitmap);
+    }
+
+    /**
+     * Empties the memory level, e.g. when the system is low on memory. The disk level is kept.
+     */
+    public void TrimMemory(){
+        memory.evictAll();
+    }
+
+    // Loads the poster from disk, downloading it first if needed, and keeps it in memory
+    private Bitmap Load(String posterURL, HttpTransport transport){
+        File file = disk.GetFile(posterURL);
+        if(file == null){
+            long downloadStart = Metrics.Start();
+            boolean downloaded = Download(posterURL, transport);
+            downloadLatency.RecordSince(downloadStart);
+            if(!downloaded)
+                return null;
+            file = disk.GetFile(posterURL);
+            if(file == null)
+                return null;
+        }
+
+        long decodeStart = Metrics.Start();
+        Bitmap bitmap = decoder.Decode(file);
+        decodeLatency.RecordSince(decodeStart);
+        if(bitmap == null){
+            // Corrupted image, it is downloaded again next time
+            disk.Remove(posterURL);
+            return null;
+        }
+        memory.put(posterURL, bitmap);
+        return bitmap;
+    }
+
+    // Streams the encoded poster from the network into the disk cache
+    private boolean Download(String posterURL, HttpTransport transport){
+        DiskLruCache.Editor editor = disk.Edit(posterURL);
+        if(editor == null)
+            return false;
+
+        try(HttpResponse response = transport.Execute(new HttpRequest(posterURL, IMAGE_TIMEOUT_MS))){
+            if(response.getCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException("Poster request responded with " + response.getCode());
+
+            InputStream body = response.getBody();
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while((read = body.read(buffer)) != -1)
+                editor.write(buffer, 0, read);
+            editor.Commit();
+            return true;
+        }
+        catch(IOException e){
+            System.out.println(e.getMessage());
+            editor.Abort();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.movieroulette;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+
+/**
+ * Decodes the posters straight to the size they are displayed at.
+ * The bounds of the image are read first, so the image can be subsampled while decoding and
+ * scaled to the exact target width, instead of decoding it at full size and scaling it afterwards.
+ * The pixels are decoded into bitmaps reused from the BitmapPool when possible.
+ * Decoding is blocking work and must not be done on the UI thread.
+ */
+public final class PosterDecoder {
+
+    // Size of the poster's ImageView in MovieDetails
+    public static final int DEFAULT_WIDTH = 250;
+    public static final int DEFAULT_HEIGHT = 370;
+
+    private final int targetWidth;
+    private final int targetHeight;
+    private final Bitmap.Config config;
+
+    /**
+     * Decoder for the posters shown in MovieDetails.
+     * Posters have no transparency, so they are decoded with 2 bytes per pixel.
+     */
+    public PosterDecoder(){
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * @param targetWidth   Width of the view displaying the posters in pixels
+     * @param targetHeight  Height of the view displaying the posters in pixels
+     * @param config        Pixel format of the decoded posters
+     */
+    public PosterDecoder(int targetWidth, int targetHeight, Bitmap.Config config){
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.config = config;
+    }
+
+    /**
+     * Decodes the encoded poster kept in a file.
+     * @param file  File with the encoded image
+     * @return      The decoded poster or null if the image could not be decoded
+     */
+    public Bitmap Decode(File file){
+        // Reading only the bounds of the image
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if(options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        PrepareOptions(options);
+        Bitmap reusable = options.inBitmap;
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        catch(IllegalArgumentException e){
+            // The pooled bitmap could not be reused, decoding into a new one
+            options.inBitmap = null;
+            BitmapPool.getInstance().Put(reusable);
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    // Sets the options for decoding, given the bounds of the image
+    private void PrepareOptions(BitmapFactory.Options options){
+        int width = options.outWidth;
+        int height = options.outHeight;
+
+        // Largest power of two keeping the image at least as large as the target
+        int sampleSize = 1;
+        while(width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight)
+            sampleSize *= 2;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+
+        // Scaling the subsampled image the rest of the way to the target width
+        int sampledWidth = width / sampleSize;
+        if(sampledWidth > targetWidth){
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        }
+
+        int decodedWidth = Math.min(sampledWidth, targetWidth);
+        int decodedHeight = (int) Math.ceil((double) height / sampleSize * decodedWidth / sampledWidth);
+        options.inBitmap = BitmapPool.getInstance().Get(decodedWidth, decodedHeight, config);
+    }
+}
@@ -0,0 +1,430 @@
+package com.example.movieroulette;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HttpTransport scheduling the requests sent through another transport, so bursts of requests
+ * (deep page scans, prefetching, posters) stay within the rate limits of TMDb.
+ * - Every host has a token bucket, a request waits for a token of its host before being sent.
+ * - Responses with status 429 or 5xx are retried with jittered exponential backoff. A Retry-After
+ *   header is honored and also pauses the rest of the requests of the host.
+ * - Requests still waiting for their response after the usual latency of the host (95th
+ *   percentile) are hedged with a duplicate request, and the first response is used. Every
+ *   request is an idempotent GET, so a duplicate is harmless. Hedges are only sent if a token
+ *   is available right away, so they never add to the load when the host is throttling.
+ * The timeout of a request is the deadline of the whole schedule, including the waits and retries.
+ */
+public final class RequestScheduler implements HttpTransport {
+
+    // Default budget of every host: a burst of requests, then a steady rate
+    private static final int DEFAULT_BURST = 20;
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+
+    // Earliest hedge, used until enough latencies are known to pick the 95th percentile
+    private static final long DEFAULT_HEDGE_DELAY_MS = 1000;
+
+    // Backoff of the retries, doubled on every attempt up to the cap
+    private static final long BACKOFF_BASE_MS = 250;
+    private static final long BACKOFF_CAP_MS = 8000;
+
+    // Amount of recent latencies kept for picking the hedge delay, and the least amount needed
+    private static final int LATENCY_SAMPLES = 64;
+    private static final int MIN_LATENCY_SAMPLES = 10;
+
+    // Threads sending the attempts of hedged requests
+    private static final int MAX_HEDGE_THREADS = 8;
+
+    // Marks a hedged request whose caller stopped waiting, so late responses are closed
+    private static final HttpResponse ABANDONED = new HttpResponse(0,
+            Collections.<String, String>emptyMap(), new ByteArrayInputStream(new byte[0]));
+
+    private final HttpTransport delegate;
+    private final int burst;
+    private final double requestsPerSecond;
+    private final int maxRetries;
+    private final long hedgeDelayMs;
+
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor hedgeExecutor;
+
+    // Counters of the scheduling
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    /**
+     * Scheduler with the default budget, retries and hedging.
+     * @param delegate  Transport sending the requests
+     */
+    public RequestScheduler(HttpTransport delegate){
+        this(delegate, DEFAULT_BURST, DEFAULT_REQUESTS_PER_SECOND, DEFAULT_MAX_RETRIES, DEFAULT_HEDGE_DELAY_MS);
+    }
+
+    /**
+     * @param delegate          Transport sending the requests
+     * @param burst             Requests a host can receive at once
+     * @param requestsPerSecond Steady rate of requests per host
+     * @param maxRetries        Retries of a throttled or failed response
+     * @param hedgeDelayMs      Earliest time a request is hedged after (-1 disables hedging)
+     */
+    public RequestScheduler(HttpTransport delegate, int burst, double requestsPerSecond, int maxRetries, long hedgeDelayMs){
+        this.delegate = delegate;
+        this.burst = burst;
+        this.requestsPerSecond = requestsPerSecond;
+        this.maxRetries = maxRetries;
+        this.hedgeDelayMs = hedgeDelayMs;
+        hedgeExecutor = new ThreadPoolExecutor(0, MAX_HEDGE_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "MovieRoulette-hedge-" + count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    @Override
+    public HttpResponse Execute(HttpRequest request) throws IOException {
+        final long deadline = System.currentTimeMillis() + request.getTimeoutMs();
+        String host = GetHost(request.getUrl());
+        TokenBucket bucket = GetBucket(host);
+
+        for (int attempt = 0; ; attempt++) {
+            bucket.Acquire(deadline);
+            HttpResponse response = SendHedged(request, host, bucket, deadline);
+
+            int code = response.getCode();
+            boolean retriable = code == 429 || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+            if(!retriable || attempt == maxRetries)
+                return response;
+
+            long retryAfter = ParseRetryAfter(response.getHeader("Retry-After"));
+            if(code == 429){
+                throttled.incrementAndGet();
+                // The rest of the requests of the host wait as well
+                if(retryAfter > 0)
+                    bucket.Pause(System.currentTimeMillis() + retryAfter);
+            }
+            long delay = Math.max(retryAfter, Backoff(attempt));
+            if(System.currentTimeMillis() + delay >= deadline)
+                return response;
+
+            response.close();
+            retries.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException("Request cancelled while backing off");
+            }
+        }
+    }
+
+    public long getThrottledCount() { return throttled.get(); }
+
+    public long getRetryCount() { return retries.get(); }
+
+    public long getHedgeCount() { return hedges.get(); }
+
+    public long getHedgeWinCount() { return hedgesWon.get(); }
+
+    /**
+     * Sends an attempt of the request, hedging it once if it is slower than usual.
+     */
+    private HttpResponse SendHedged(HttpRequest request, String host, TokenBucket bucket, long deadline) throws IOException {
+        LatencyTracker tracker = GetLatencyTracker(host);
+        long remaining = deadline - System.currentTimeMillis();
+        if(remaining <= 0)
+            throw new IOException("Deadline passed before the request was sent");
+        final HttpRequest attempt = WithTimeout(request, (int) remaining);
+
+        if(hedgeDelayMs < 0)
+            return Send(attempt, tracker);
+
+        long hedgeDelay = Math.max(hedgeDelayMs, tracker.getPercentile95());
+        Race race = new Race();
+        if(!race.Start(attempt, tracker, false)){
+            // No thread to race on, sending it from the caller without hedging
+            return Send(attempt, tracker);
+        }
+
+        try {
+            if(!race.done.await(Math.min(hedgeDelay, remaining), TimeUnit.MILLISECONDS)
+                    && bucket.TryAcquire() && race.Start(attempt, tracker, true)) {
+                hedges.incrementAndGet();
+            }
+            if(!race.done.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+                throw new IOException("Deadline passed while waiting for the response");
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            race.Abandon();
+            throw new IOException("Request cancelled");
+        }
+        catch(IOException e){
+            race.Abandon();
+            throw e;
+        }
+
+        HttpResponse winner = race.winner.get();
+        if(winner == null)
+            throw race.error;
+        return winner;
+    }
+
+    private HttpResponse Send(HttpRequest request, LatencyTracker tracker) throws IOException {
+        long start = System.currentTimeMillis();
+        HttpResponse response = delegate.Execute(request);
+        tracker.Add(System.currentTimeMillis() - start);
+        return response;
+    }
+
+    private TokenBucket GetBucket(String host){
+        TokenBucket bucket = buckets.get(host);
+        if(bucket == null){
+            TokenBucket created = new TokenBucket(burst, requestsPerSecond);
+            bucket = buckets.putIfAbsent(host, created);
+            if(bucket == null)
+                bucket = created;
+        }
+        return bucket;
+    }
+
+    private LatencyTracker GetLatencyTracker(String host){
+        LatencyTracker tracker = latencies.get(host);
+        if(tracker == null){
+            LatencyTracker created = new LatencyTracker();
+            tracker = latencies.putIfAbsent(host, created);
+            if(tracker == null)
+                tracker = created;
+        }
+        return tracker;
+    }
+
+    // Full jitter: a random delay up to the exponential backoff of the attempt
+    private static long Backoff(int attempt){
+        long ceiling = Math.min(BACKOFF_CAP_MS, BACKOFF_BASE_MS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Parses a Retry-After header, given either in seconds or as an HTTP date.
+     * @param header    Value of the header (can be null)
+     * @return          Time to wait in milliseconds, 0 if the header is missing or malformed
+     */
+    static long ParseRetryAfter(String header){
+        if(header == null)
+            return 0;
+        header = header.trim();
+        try {
+            return Math.max(0, Long.parseLong(header) * 1000);
+        }
+        catch(NumberFormatException e){
+            // Not in seconds, trying the date format
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(header).getTime() - System.currentTimeMillis());
+        }
+        catch(ParseException e){
+            System.out.println(e.getMessage());
+            return 0;
+        }
+    }
+
+    private static String GetHost(String url) throws IOException {
+        try {
+            return new URL(url).getHost().toLowerCase(Locale.US);
+        }
+        catch(MalformedURLException e){
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static HttpRequest WithTimeout(HttpRequest request, int timeoutMs){
+        HttpRequest copy = new HttpRequest(request.getUrl(), timeoutMs);
+        copy.getHeaders().putAll(request.getHeaders());
+        return copy;
+    }
+
+    /**
+     * Attempts of a request racing each other. The first response wins, the others are closed
+     * as soon as they arrive.
+     */
+    private final class Race {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<HttpResponse> winner = new AtomicReference<>();
+        final AtomicInteger pending = new AtomicInteger();
+        volatile IOException error = new IOException("Request failed");
+
+        // Starts an attempt on the hedge threads, returns false if no thread is available
+        boolean Start(final HttpRequest request, final LatencyTracker tracker, final boolean hedge){
+            pending.incrementAndGet();
+            try {
+                hedgeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Attempt(request, tracker, hedge);
+                    }
+                });
+                return true;
+            }
+            catch(RejectedExecutionException e){
+                pending.decrementAndGet();
+                return false;
+            }
+        }
+
+        void Attempt(HttpRequest request, LatencyTracker tracker, boolean hedge){
+            try {
+                HttpResponse response = Send(request, tracker);
+                if(winner.compareAndSet(null, response)){
+                    if(hedge)
+                        hedgesWon.incrementAndGet();
+                    done.countDown();
+                }
+                else {
+                    response.close();
+                }
+            }
+            catch(IOException e){
+                error = e;
+                // The last attempt to fail ends the race
+                if(pending.decrementAndGet() == 0 && winner.get() == null)
+                    done.countDown();
+            }
+        }
+
+        // Called when the caller stops waiting, the response arriving later is closed
+        void Abandon(){
+            HttpResponse response = winner.getAndSet(ABANDONED);
+            if(response != null && response != ABANDONED)
+                response.close();
+        }
+    }
+
+    /**
+     * Token bucket of a host. Tokens are reserved ahead, so waiting requests are served in order.
+     */
+    private static final class TokenBucket {
+
+        private final double capacity;
+        private final double tokensPerMs;
+        private double tokens;
+        private long lastRefill;
+        private long pausedUntil = 0;
+
+        TokenBucket(int capacity, double requestsPerSecond){
+            this.capacity = capacity;
+            tokensPerMs = requestsPerSecond / 1000;
+            tokens = capacity;
+            lastRefill = System.currentTimeMillis();
+        }
+
+        /**
+         * Takes a token, waiting for it if needed.
+         * @param deadline  Time the request must be done by
+         * @throws IOException  If the token wouldn't be available before the deadline
+         */
+        void Acquire(long deadline) throws IOException {
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                Refill(now);
+                tokens -= 1;
+                wait = Math.max(tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerMs), pausedUntil - now);
+                if(now + wait >= deadline){
+                    tokens += 1;
+                    throw new IOException("Rate limit budget exceeded");
+                }
+            }
+            if(wait <= 0)
+                return;
+            try {
+                Thread.sleep(wait);
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException("Request cancelled while waiting for its turn");
+            }
+        }
+
+        /**
+         * Takes a token only if one is available right away.
+         */
+        synchronized boolean TryAcquire(){
+            long now = System.currentTimeMillis();
+            Refill(now);
+            if(tokens < 1 || now < pausedUntil)
+                return false;
+            tokens -= 1;
+            return true;
+        }
+
+        /**
+         * Stops handing out tokens until the time given, e.g. the one a 429 response asked for.
+         */
+        synchronized void Pause(long until){
+            pausedUntil = Math.max(pausedUntil, until);
+        }
+
+        private void Refill(long now){
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMs);
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Recent latencies of a host, until the response headers arrived.
+     */
+    private static final class LatencyTracker {
+
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int count = 0;
+
+        synchronized void Add(long latencyMs){
+            samples[count % LATENCY_SAMPLES] = latencyMs;
+            count++;
+        }
+
+        /**
+         * @return  The 95th percentile of the recent latencies, 0 if too few are known
+         */
+        synchronized long getPercentile95(){
+            int size = Math.min(count, LATENCY_SAMPLES);
+            if(size < MIN_LATENCY_SAMPLES)
+                return 0;
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(size * 0.95) - 1];
+        }
+    }
+}
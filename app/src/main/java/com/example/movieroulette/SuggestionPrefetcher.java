@@ -0,0 +1,176 @@
+package com.example.movieroulette;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Loads suggestions ahead of the user asking for them.
+ * Keeps a small queue of fully loaded movies (details and poster) for the current filter, so a
+ * search can show one at once. The queue is refilled one movie at a time in the background and
+ * starts over whenever the filter changes.
+ * Movies suggested or queued during the session are never picked again.
+ * Apart from the session filter, every method must be called from the UI thread.
+ */
+public final class SuggestionPrefetcher {
+
+    // Amount of movies kept ready for the current filter
+    private static final int DEFAULT_CAPACITY = 2;
+
+    private final TMDB_Wrapper tmdb;
+    private final int capacity;
+
+    // Loaded movies of the current filter, in the order they were found
+    private final ArrayDeque<Movie> ready = new ArrayDeque<>();
+
+    // Ids of the movies suggested or queued during the session
+    private final Set<String> sessionIds = Collections.synchronizedSet(new HashSet<String>());
+
+    // Used by the searches for skipping the movies of the session, called from background threads
+    private final TMDB_Parser.IdFilter sessionFilter = new TMDB_Parser.IdFilter() {
+        @Override
+        public boolean IsDisqualified(String id) {
+            return sessionIds.contains(id);
+        }
+    };
+
+    private final TaskRunner.TaskGroup tasks = new TaskRunner.TaskGroup();
+
+    // Current filter, no movies are loaded until one is set
+    private boolean hasFilter = false;
+    private int year = -1;
+    private String genre = "";
+
+    // Increased on every filter change, so results of older loads are dropped
+    private int generation = 0;
+    private boolean loading = false;
+
+    /**
+     * @param tmdb  Wrapper used for loading the movies
+     */
+    public SuggestionPrefetcher(TMDB_Wrapper tmdb){
+        this(tmdb, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param tmdb      Wrapper used for loading the movies
+     * @param capacity  Amount of movies kept ready for the current filter
+     */
+    public SuggestionPrefetcher(TMDB_Wrapper tmdb, int capacity){
+        this.tmdb = tmdb;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the filter the movies are loaded for. Changing it drops the queued movies and the ones
+     * being loaded and starts loading movies of the new filter.
+     * @param year      Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param genre     The genre the movie must include ("" if N/A)
+     */
+    public void SetFilter(int year, String genre){
+        if(hasFilter && this.year == year && this.genre.equals(genre)){
+            Refill();
+            return;
+        }
+        Cancel();
+        hasFilter = true;
+        this.year = year;
+        this.genre = genre;
+        Refill();
+    }
+
+    /**
+     * Takes the next loaded movie of the filter, marking it as suggested.
+     * A different filter replaces the current one, as the user settled on it.
+     * @param year      Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param genre     The genre the movie must include ("" if N/A)
+     * @return          A loaded movie or null if none is ready yet
+     */
+    public Movie Poll(int year, String genre){
+        SetFilter(year, genre);
+
+        Movie movie;
+        while((movie = ready.poll()) != null){
+            // The database may have changed since the movie was loaded
+            if(!DB_Gate.getInstance().DoesMovieExist(movie.getTmdb_id()))
+                break;
+            sessionIds.remove(movie.getTmdb_id());
+        }
+        Refill();
+        return movie;
+    }
+
+    /**
+     * Keeps the movie out of the later suggestions of the session.
+     * @param id    The TMDb id of the movie
+     */
+    public void MarkSuggested(String id){
+        sessionIds.add(id);
+    }
+
+    /**
+     * Starts loading movies until the queue is full, e.g. after a suggestion was shown.
+     */
+    public void Refill(){
+        if(!hasFilter || loading || ready.size() >= capacity)
+            return;
+
+        loading = true;
+        final int loadGeneration = generation;
+        final int loadYear = year;
+        final String loadGenre = genre;
+        tasks.Add(TaskRunner.getInstance().Execute(new Callable<Movie>() {
+            @Override
+            public Movie call() {
+                return Load(loadYear, loadGenre);
+            }
+        }, new TaskRunner.Callback<Movie>() {
+            @Override
+            public void onResult(Movie movie) {
+                // Loaded for a filter that isn't used anymore
+                if(loadGeneration != generation)
+                    return;
+                loading = false;
+                // Nothing more to load for the filter (or no network), the next search will retry
+                if(movie == null)
+                    return;
+                // A search done in the meantime may have suggested the same movie
+                if(sessionIds.add(movie.getTmdb_id()))
+                    ready.add(movie);
+                Refill();
+            }
+        }));
+    }
+
+    /**
+     * Drops the queued movies and stops loading new ones. Movies already suggested stay out of
+     * the session's suggestions.
+     */
+    public void Cancel(){
+        tasks.CancelAll();
+        for (Movie movie: ready) {
+            sessionIds.remove(movie.getTmdb_id());
+        }
+        ready.clear();
+        generation++;
+        loading = false;
+        hasFilter = false;
+    }
+
+    /**
+     * @return  Filter skipping the movies of the session, for searches done outside the prefetcher
+     */
+    public TMDB_Parser.IdFilter getSessionFilter(){
+        return sessionFilter;
+    }
+
+    // Finds and fully loads the next movie of the filter, runs in the background
+    private Movie Load(int year, String genre){
+        String id = tmdb.GetPopularMovieID(year, genre, TMDB_Wrapper.PREFETCH_PAGES, sessionFilter);
+        if(id == null)
+            return null;
+        return tmdb.GetMovieDetails(id);
+    }
+}
@@ -0,0 +1,493 @@
+package com.example.movieroulette;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Streaming parsers of the TMDb API responses.
+ * Every parser pulls only the fields its caller needs out of a JsonReader, skipping the rest of
+ * the response without building a tree of JSON objects.
+ */
+public final class TMDB_Parser {
+
+    // Amount of the cast kept from the credits of a movie
+    public static final int CAST_SHOWN = 3;
+
+    private TMDB_Parser(){
+        // Private Constructor, the class only holds the parsers
+    }
+
+    /**
+     * Parser of a single type of response.
+     * @param <T>   Type of the parsed result
+     */
+    public interface Parser<T> {
+        /**
+         * Parses the response. The parser may return before reading the whole response.
+         * @param reader    Reader positioned at the start of the response
+         * @return          The parsed result
+         * @throws IOException  If the response is malformed or could not be read
+         */
+        T Parse(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Receives the poster's path of a movie as soon as the parser reads it, before the rest of
+     * the response, so the poster can be downloaded while the response is still arriving.
+     */
+    public interface PosterListener {
+        void OnPosterPath(String posterPath);
+    }
+
+    /**
+     * Decides if a movie of a discover page can be suggested.
+     */
+    public interface IdFilter {
+        boolean IsDisqualified(String id);
+    }
+
+    /**
+     * The parts of a discover page needed by the search.
+     */
+    public static final class DiscoverPage {
+        // Id of the first movie that passed the filter, null if none did
+        public String eligibleId = null;
+        // Only known if the whole page was read, i.e. when no movie passed the filter
+        public int totalPages = 0;
+        public int totalResults = 0;
+        // Ids of the movies read in order, all of them unless a movie passed the filter
+        public ArrayList<String> ids = new ArrayList<>();
+    }
+
+    /**
+     * A movie of a discover page, as kept in the local catalog.
+     */
+    public static final class DiscoverMovie {
+        public String id = null;
+        public String title = null;
+        // Year of release, -1 if unknown
+        public int year = -1;
+        public double popularity = 0;
+        public int[] genreIds = new int[0];
+    }
+
+    /**
+     * Parser of a discover page that stops reading at the first movie passing the filter.
+     * @param filter    Filter deciding which movies are disqualified
+     * @return          The parser
+     */
+    public static Parser<DiscoverPage> DiscoverPage(final IdFilter filter){
+        return new Parser<DiscoverPage>() {
+            @Override
+            public DiscoverPage Parse(JsonReader reader) throws IOException {
+                DiscoverPage page = new DiscoverPage();
+                reader.beginObject();
+                while(reader.hasNext()){
+                    String name = reader.nextName();
+                    if(name.equals("results")){
+                        reader.beginArray();
+                        while(reader.hasNext()){
+                            String id = ReadMovieId(reader);
+                            if(id == null)
+                                continue;
+                            page.ids.add(id);
+                            if(!filter.IsDisqualified(id)){
+                                // The rest of the page is not needed
+                                page.eligibleId = id;
+                                return page;
+                            }
+                        }
+                        reader.endArray();
+                    }
+                    else if(name.equals("total_pages"))
+                        page.totalPages = reader.nextInt();
+                    else if(name.equals("total_results"))
+                        page.totalResults = reader.nextInt();
+                    else
+                        reader.skipValue();
+                }
+                reader.endObject();
+                return page;
+            }
+        };
+    }
+
+    /**
+     * Parser of the ids of all the movies of a discover page, along with the totals.
+     * The parser keeps no state, so the same one is returned every time.
+     * @return      The parser
+     */
+    public static Parser<DiscoverPage> DiscoverIds(){
+        return DISCOVER_IDS;
+    }
+
+    private static final Parser<DiscoverPage> DISCOVER_IDS = new Parser<DiscoverPage>() {
+        @Override
+        public DiscoverPage Parse(JsonReader reader) throws IOException {
+            DiscoverPage page = new DiscoverPage();
+            reader.beginObject();
+            while(reader.hasNext()){
+                String name = reader.nextName();
+                if(name.equals("results")){
+                    reader.beginArray();
+                    while(reader.hasNext()){
+                        String id = ReadMovieId(reader);
+                        if(id != null)
+                            page.ids.add(id);
+                    }
+                    reader.endArray();
+                }
+                else if(name.equals("total_pages"))
+                    page.totalPages = reader.nextInt();
+                else if(name.equals("total_results"))
+                    page.totalResults = reader.nextInt();
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+            return page;
+        }
+    };
+
+    /**
+     * Parser of all the movies of a discover page.
+     * The parser keeps no state, so the same one is returned every time.
+     * @return      The parser
+     */
+    public static Parser<ArrayList<DiscoverMovie>> DiscoverMovies(){
+        return DISCOVER_MOVIES;
+    }
+
+    private static final Parser<ArrayList<DiscoverMovie>> DISCOVER_MOVIES = new Parser<ArrayList<DiscoverMovie>>() {
+        @Override
+        public ArrayList<DiscoverMovie> Parse(JsonReader reader) throws IOException {
+            ArrayList<DiscoverMovie> movies = new ArrayList<>();
+            reader.beginObject();
+            while(reader.hasNext()){
+                if(!reader.nextName().equals("results")){
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while(reader.hasNext()){
+                    DiscoverMovie movie = ReadDiscoverMovie(reader);
+                    if(movie.id != null && movie.title != null)
+                        movies.add(movie);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return movies;
+        }
+    };
+
+    /**
+     * Parser of the movie matching an external id, as returned by the find endpoint.
+     * The parser keeps no state, so the same one is returned every time.
+     * @return      The parser, giving a movie without id if nothing matched
+     */
+    public static Parser<DiscoverMovie> FindMovie(){
+        return FIND_MOVIE;
+    }
+
+    private static final Parser<DiscoverMovie> FIND_MOVIE = new Parser<DiscoverMovie>() {
+        @Override
+        public DiscoverMovie Parse(JsonReader reader) throws IOException {
+            DiscoverMovie match = new DiscoverMovie();
+            reader.beginObject();
+            while(reader.hasNext()){
+                if(!reader.nextName().equals("movie_results")){
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while(reader.hasNext()){
+                    // An IMDb id belongs to one movie, any other result is ignored
+                    DiscoverMovie movie = ReadDiscoverMovie(reader);
+                    if(match.id == null && movie.id != null && movie.title != null)
+                        match = movie;
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return match;
+        }
+    };
+
+    /**
+     * Parser of the details of a movie. The poster is not downloaded, only its path is kept.
+     * @param id    TMDb id of the movie
+     * @return      The parser
+     */
+    public static Parser<Movie> MovieDetails(final String id){
+        return MovieDetails(id, null);
+    }
+
+    /**
+     * Parser of the details of a movie, with the credits appended to the response.
+     * @param id        TMDb id of the movie
+     * @param listener  Receives the poster's path as soon as it is read (can be null)
+     * @return          The parser
+     */
+    public static Parser<Movie> MovieDetails(final String id, final PosterListener listener){
+        return new Parser<Movie>() {
+            @Override
+            public Movie Parse(JsonReader reader) throws IOException {
+                Movie movie = new Movie();
+                movie.setTmdb_id(id);
+                reader.beginObject();
+                while(reader.hasNext()){
+                    String name = reader.nextName();
+                    if(reader.peek() == JsonToken.NULL){
+                        reader.skipValue();
+                        continue;
+                    }
+                    switch (name){
+                        case "overview":
+                            movie.setOverview(reader.nextString());
+                            break;
+                        case "title":
+                            movie.setTitle(reader.nextString());
+                            break;
+                        case "imdb_id":
+                            movie.setImdbID(reader.nextString());
+                            break;
+                        case "poster_path":
+                            movie.setPosterPath(reader.nextString());
+                            if(listener != null)
+                                listener.OnPosterPath(movie.getPosterPath());
+                            break;
+                        case "genres":
+                            movie.setGenres(ReadGenreNames(reader));
+                            break;
+                        case "credits":
+                            ReadCredits(reader, movie);
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if(movie.getTitle() == null)
+                    throw new IOException("Movie " + id + " has no title");
+                if(movie.getGenres() == null)
+                    movie.setGenres(new ArrayList<String>());
+                if(movie.getCast() == null)
+                    movie.setCast(new ArrayList<String>());
+                if(movie.getDirectors() == null)
+                    movie.setDirectors(new ArrayList<String>());
+                return movie;
+            }
+        };
+    }
+
+    /**
+     * Parser of the genre list, mapping the genres' names to their ids.
+     * The parser keeps no state, so the same one is returned every time.
+     * @return  The parser
+     */
+    public static Parser<HashMap<String, Integer>> Genres(){
+        return GENRES;
+    }
+
+    private static final Parser<HashMap<String, Integer>> GENRES = new Parser<HashMap<String, Integer>>() {
+        @Override
+        public HashMap<String, Integer> Parse(JsonReader reader) throws IOException {
+            HashMap<String, Integer> genres = new HashMap<>();
+            reader.beginObject();
+            while(reader.hasNext()){
+                if(!reader.nextName().equals("genres")){
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while(reader.hasNext()){
+                    String genreName = null;
+                    int genreId = -1;
+                    reader.beginObject();
+                    while(reader.hasNext()){
+                        String name = reader.nextName();
+                        if(name.equals("name"))
+                            genreName = reader.nextString();
+                        else if(name.equals("id"))
+                            genreId = reader.nextInt();
+                        else
+                            reader.skipValue();
+                    }
+                    reader.endObject();
+                    if(genreName != null && genreId != -1)
+                        genres.put(genreName, genreId);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return genres;
+        }
+    };
+
+    /**
+     * Parser that reads nothing, used when only the raw response is needed (e.g. for caching).
+     * @return  The parser
+     */
+    public static Parser<Void> Skip(){
+        return new Parser<Void>() {
+            @Override
+            public Void Parse(JsonReader reader) {
+                return null;
+            }
+        };
+    }
+
+    // Reads a movie object of a results array, returning only its id
+    private static String ReadMovieId(JsonReader reader) throws IOException {
+        String id = null;
+        reader.beginObject();
+        while(reader.hasNext()){
+            if(reader.nextName().equals("id"))
+                id = reader.nextString();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        return id;
+    }
+
+    // Reads a movie object of a results array, keeping the fields of the catalog
+    private static DiscoverMovie ReadDiscoverMovie(JsonReader reader) throws IOException {
+        DiscoverMovie movie = new DiscoverMovie();
+        reader.beginObject();
+        while(reader.hasNext()){
+            String name = reader.nextName();
+            if(reader.peek() == JsonToken.NULL){
+                reader.skipValue();
+                continue;
+            }
+            switch (name){
+                case "id":
+                    movie.id = reader.nextString();
+                    break;
+                case "title":
+                    movie.title = reader.nextString();
+                    break;
+                case "release_date":
+                    movie.year = ParseYear(reader.nextString());
+                    break;
+                case "popularity":
+                    movie.popularity = reader.nextDouble();
+                    break;
+                case "genre_ids":
+                    movie.genreIds = ReadIntArray(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return movie;
+    }
+
+    // Reads an array of ints
+    private static int[] ReadIntArray(JsonReader reader) throws IOException {
+        int[] values = new int[4];
+        int count = 0;
+        reader.beginArray();
+        while(reader.hasNext()){
+            if(count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            values[count++] = reader.nextInt();
+        }
+        reader.endArray();
+        return Arrays.copyOf(values, count);
+    }
+
+    // Takes the year out of a date (yyyy-mm-dd), -1 if the date is empty or malformed
+    private static int ParseYear(String date){
+        if(date.length() < 4)
+            return -1;
+        try {
+            return Integer.parseInt(date.substring(0, 4));
+        }
+        catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    // Reads the genres array of a movie, returning only the names
+    private static ArrayList<String> ReadGenreNames(JsonReader reader) throws IOException {
+        ArrayList<String> genres = new ArrayList<>();
+        reader.beginArray();
+        while(reader.hasNext()){
+            reader.beginObject();
+            while(reader.hasNext()){
+                if(reader.nextName().equals("name"))
+                    genres.add(reader.nextString());
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return genres;
+    }
+
+    // Reads the credits appended to the details of a movie, keeping the first names of the cast
+    // and the directors of the crew
+    private static void ReadCredits(JsonReader reader, Movie movie) throws IOException {
+        ArrayList<String> cast = new ArrayList<>();
+        ArrayList<String> directors = new ArrayList<>();
+        reader.beginObject();
+        while(reader.hasNext()){
+            String name = reader.nextName();
+            if(name.equals("cast") && reader.peek() == JsonToken.BEGIN_ARRAY){
+                // The cast is ordered by billing, the rest of it is skipped
+                reader.beginArray();
+                while(reader.hasNext()){
+                    if(cast.size() < CAST_SHOWN)
+                        ReadCreditName(reader, null, cast);
+                    else
+                        reader.skipValue();
+                }
+                reader.endArray();
+            }
+            else if(name.equals("crew") && reader.peek() == JsonToken.BEGIN_ARRAY){
+                reader.beginArray();
+                while(reader.hasNext()){
+                    ReadCreditName(reader, "Director", directors);
+                }
+                reader.endArray();
+            }
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        movie.setCast(cast);
+        movie.setDirectors(directors);
+    }
+
+    // Reads a person of the credits, adding the name if the job matches (any job if null)
+    private static void ReadCreditName(JsonReader reader, String job, ArrayList<String> names) throws IOException {
+        String name = null;
+        String personJob = null;
+        reader.beginObject();
+        while(reader.hasNext()){
+            String field = reader.nextName();
+            if(reader.peek() == JsonToken.NULL)
+                reader.skipValue();
+            else if(field.equals("name"))
+                name = reader.nextString();
+            else if(field.equals("job"))
+                personJob = reader.nextString();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        if(name != null && (job == null || job.equals(personJob)))
+            names.add(name);
+    }
+}
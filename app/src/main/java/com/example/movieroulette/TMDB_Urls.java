@@ -0,0 +1,96 @@
+package com.example.movieroulette;
+
+/**
+ * Builders of the TMDb API URLs.
+ * The class only depends on plain Java, so the URLs can be built and measured off the device.
+ */
+public final class TMDB_Urls {
+
+    private static final String GENRE_URL = "https://api.themoviedb.org/3/genre/movie/list?api_key=";
+    private static final String DISCOVER_URL = "https://api.themoviedb.org/3/discover/movie?api_key=";
+    private static final String MOVIE_URL = "https://api.themoviedb.org/3/movie/";
+    private static final String FIND_URL = "https://api.themoviedb.org/3/find/";
+    private static final String POSTER_URL = "https://image.tmdb.org/t/p/w500/";
+
+    // Sections appended to the details of a movie, so they come in the same round trip
+    private static final String APPENDED_SECTIONS = "&append_to_response=credits";
+
+    // Strings containing the necessary URL part for sending requests with filters
+    private static final String SORT_CONSTRAINT = "&sort_by=";
+    private static final String ADULT_CONSTRAINT = "&include_adult=";
+    private static final String VIDEO_CONSTRAINT = "&include_video=";
+    private static final String PAGE_CONSTRAINT = "&page=";
+    private static final String GENRE_CONSTRAINT = "&with_genres=";
+    private static final String YEAR_CONSTRAINT = "&year=";
+
+    private TMDB_Urls(){
+        // Private Constructor, the class only holds the builders
+    }
+
+    /**
+     * @param apiKey    API key of TMDb
+     * @return          URL of the list of the movie genres
+     */
+    public static String Genres(String apiKey){
+        return GENRE_URL + apiKey;
+    }
+
+    /**
+     * @param apiKey    API key of TMDb
+     * @param id        TMDb id of the movie
+     * @return          URL of the details of the movie, with its credits appended
+     */
+    public static String MovieDetails(String apiKey, String id){
+        return MOVIE_URL + id + "?api_key=" + apiKey + APPENDED_SECTIONS;
+    }
+
+    /**
+     * @param apiKey    API key of TMDb
+     * @param imdbId    IMDb id of the movie (e.g. tt0133093)
+     * @return          URL looking up the TMDb movie of the IMDb id
+     */
+    public static String FindByImdbId(String apiKey, String imdbId){
+        return FIND_URL + imdbId + "?api_key=" + apiKey + "&external_source=imdb_id";
+    }
+
+    /**
+     * @param posterPath    Poster's path given by the details of the movie
+     * @return              URL of the poster
+     */
+    public static String Poster(String posterPath){
+        return POSTER_URL + posterPath;
+    }
+
+    /**
+     * Builds the discover URL with the filters given, without the page constraint.
+     * @param apiKey    API key of TMDb
+     * @param year      Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param genreId   TMDb id of the genre the movie must include (-1 if N/A)
+     * @return          The URL of the search
+     */
+    public static String Discover(String apiKey, int year, int genreId){
+        // Building the basic url
+        StringBuilder urlString = new StringBuilder(192);
+        urlString.append(DISCOVER_URL).append(apiKey);
+        // Appends filters to the url
+        urlString.append(SORT_CONSTRAINT).append("popularity.desc");
+        urlString.append(ADULT_CONSTRAINT).append("false");
+        urlString.append(VIDEO_CONSTRAINT).append("false");
+        if(year != -1)
+            urlString.append(YEAR_CONSTRAINT).append(year);
+        if(genreId != -1)
+            urlString.append(GENRE_CONSTRAINT).append(genreId);
+        return urlString.toString();
+    }
+
+    /**
+     * Appends the page constraint to a discover URL.
+     * A new String is built for every page, so the constraint is never repeated.
+     * @param discoverURL   URL returned by Discover
+     * @param page          Number of the requested page
+     * @return              URL of the page
+     */
+    public static String Page(String discoverURL, int page){
+        return discoverURL + PAGE_CONSTRAINT + page;
+    }
+}
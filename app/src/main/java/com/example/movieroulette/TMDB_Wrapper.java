@@ -1,22 +1,31 @@
 package com.example.movieroulette;
 
 import android.content.Context;
-import android.graphics.BitmapFactory;
+import android.graphics.Bitmap;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -31,102 +40,402 @@ public final class TMDB_Wrapper {
     // Constructor that needs a context argument in order to access resources to get the
     // necessary api key for TMDb
     public TMDB_Wrapper(Context context){
+        this(context, null);
+    }
+
+    /**
+     * Wrapper sending its requests through a transport of its own instead of the shared one,
+     * e.g. one counting the bytes of a single job. The caches are still shared.
+     * @param context   Context used for getting the api key and opening the caches
+     * @param own       Transport of this wrapper, or null for the shared one
+     */
+    public TMDB_Wrapper(Context context, HttpTransport own){
         API_KEY = context.getResources().getString(R.string.TMDb_API_KEY);
+        this.ownTransport = own;
+        InitCaches(context);
     }
 
-    // URLs for various parts of the TMDb API
-    private static final String GENRE_URL = "https://api.themoviedb.org/3/genre/movie/list?api_key=";
-    private static final String DISCOVER_URL = "https://api.themoviedb.org/3/discover/movie?api_key=";
-    private static final  String MOVIE_URL = "https://api.themoviedb.org/3/movie/";
+    // Transport of this wrapper only, null if it uses the shared one
+    private final HttpTransport ownTransport;
+
+    // Disk cache of the API responses, shared by all the wrappers
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+    private static HttpCache httpCache = null;
 
-    // Strings containing the necessary URL part for sending requests with filters
-    private static final String SORT_CONSTRAINT = "&sort_by=";
-    private static final String ADULT_CONSTRAINT = "&include_adult=";
-    private static final String VIDEO_CONSTRAINT = "&include_video=";
-    private static final String PAGE_CONSTRAINT = "&page=";
-    private static final String GENRE_CONSTRAINT = "&with_genres=";
-    private static final String YEAR_CONSTRAINT = "&year=";
+    // Layer sending the requests, replaceable by tests
+    // The requests are scheduled within the rate limits of TMDb, retried when throttled and
+    // hedged when slow
+    private static volatile HttpTransport transport = new RequestScheduler(new UrlConnectionTransport());
 
-    // HashMap containing the movies' genres and their genres' ids
-    // Required for avoiding making duplicate calls to the API while retrieving movie information
-    private static HashMap<String, Integer> genre_hashmap = null;
+    // Deadline of the API requests
+    private static final int API_TIMEOUT_MS = 10000;
 
     /**
-     * Returns a Movie object with the necessary information retrieved from TMDb.
-     * Sends request to the TMDb API and then parses the data into a Movie object.
-     * @param id TMDb id of the movie, whose details are requested
-     * @return  Returns a Movie object, with the information retrieved from the API
+     * Replaces the layer sending the requests, e.g. with one pointing at a local stand-in server.
+     * @param newTransport  Transport used by all the wrappers from now on
      */
-    public Movie GetMovieDetails(String id){
-        //Building the URL
-        StringBuilder urlString = new StringBuilder(MOVIE_URL);
-        urlString.append(id);
-        urlString.append("?api_key=" + API_KEY);
+    public static void SetTransport(HttpTransport newTransport){
+        transport = newTransport;
+    }
 
-        // Sending the request
-        JSONObject response = SendRequest(urlString.toString());
+    /**
+     * @return  Transport shared by the wrappers without one of their own
+     */
+    public static HttpTransport getSharedTransport() { return transport; }
 
-        //Parsing the JSON data retrieved into a Movie object
-        Movie movie = new Movie();
-        try {
-            movie.setOverview(response.getString("overview"));
-            movie.setTitle(response.getString("title"));
-            movie.setImdbID(response.getString("imdb_id"));
-            movie.setTmdb_id(id);
-
-            ArrayList<String> genres = new ArrayList<>();
-            JSONArray JSONgenres = response.getJSONArray("genres");
-            for (int i = 0; i < JSONgenres.length(); i++) {
-                genres.add(JSONgenres.getJSONObject(i).getString("name"));
-            }
-            movie.setGenres(genres);
+    // Scheduler of the shared transport, or null if it was replaced by one that isn't a scheduler
+    private static RequestScheduler CurrentScheduler(){
+        HttpTransport current = transport;
+        return current instanceof RequestScheduler ? (RequestScheduler) current : null;
+    }
 
-            // Downloading the poster image of the movie
-            String posterURL = "https://image.tmdb.org/t/p/w500/" + response.getString("poster_path");
-            try {
-                movie.setPoster(BitmapFactory.decodeStream(new URL(posterURL).openConnection().getInputStream()));
+    // Transport the requests of this wrapper are sent through
+    private HttpTransport CurrentTransport(){
+        return ownTransport != null ? ownTransport : transport;
+    }
+
+    // Metrics of the requests and of their parsing by endpoint, and of the searches
+    private static final String[] ENDPOINTS = {"discover", "movie", "genre", "find", "other"};
+    private static final Metrics.Histogram[] requestLatency = new Metrics.Histogram[ENDPOINTS.length];
+    private static final Metrics.Histogram[] parseLatency = new Metrics.Histogram[ENDPOINTS.length];
+    private static final Metrics.Histogram searchLatency = Metrics.getInstance().Histogram("search.latency");
+    private static final Metrics.Histogram searchPages = Metrics.getInstance().Histogram("search.pages_scanned");
+    private static final Metrics.Histogram searchBytes = Metrics.getInstance().Histogram("search.bytes_read");
+    private static final Metrics.Counter catalogHits = Metrics.getInstance().Counter("search.catalog_hits");
+    private static final Metrics.Histogram randomPages = Metrics.getInstance().Histogram("random.pages_requested");
+
+    static {
+        for (int i = 0; i < ENDPOINTS.length; i++) {
+            requestLatency[i] = Metrics.getInstance().Histogram("http." + ENDPOINTS[i]);
+            parseLatency[i] = Metrics.getInstance().Histogram("parse." + ENDPOINTS[i]);
+        }
+    }
+
+    // Keys of the cached responses being revalidated in the background
+    private static final HashSet<String> revalidating = new HashSet<>();
+
+    // Requests being sent to the API by key, joined by the callers asking for the same response
+    private static final ConcurrentHashMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    // Counters of the requests that joined one already being sent, instead of sending their own,
+    // and of the ones among them that also shared its parsed result
+    private static final AtomicLong coalescedRequests = new AtomicLong();
+    private static final AtomicLong sharedResults = new AtomicLong();
+
+    // Seed of the last random pick, shown with the metrics so a pick can be reproduced
+    private static final AtomicLong lastRandomSeed = new AtomicLong();
+
+    // Memory and disk cache of the posters, shared by all the wrappers
+    private static final long POSTER_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    private static final int POSTER_MEMORY_CACHE_SIZE = (int) Math.min(8 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+    private static PosterCache posterCache = null;
+
+    // Cache of the parsed movie details, so repeated views skip the request and the parsing
+    private static final long MOVIE_DISK_CACHE_SIZE = 2 * 1024 * 1024;
+    private static final int MOVIE_MEMORY_CACHE_ENTRIES = 64;
+    private static final long MOVIE_CACHE_TTL_MS = 24 * 60 * 60 * 1000L;
+    private static MovieCache movieCache = null;
+
+    // Context the caches are opened with, kept until the first request needs them
+    private static Context cacheContext = null;
+
+    // Only keeps the context, the caches read their directories when they are first used from a
+    // background thread, so creating a wrapper on the UI thread never touches the disk
+    private static synchronized void InitCaches(Context context){
+        if(cacheContext == null) {
+            cacheContext = context.getApplicationContext();
+            RegisterGauges();
+        }
+    }
+
+    // Shows the counters kept by the HTTP cache along with the rest of the metrics
+    private static void RegisterCacheGauges(final HttpCache cache){
+        Metrics metrics = Metrics.getInstance();
+        metrics.RegisterGauge("http_cache.hits", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getHitCount(); }
+        });
+        metrics.RegisterGauge("http_cache.misses", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getMissCount(); }
+        });
+        metrics.RegisterGauge("http_cache.stale_hits", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getStaleHitCount(); }
+        });
+        metrics.RegisterGauge("http_cache.revalidations", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getRevalidationCount(); }
+        });
+        metrics.RegisterGauge("http_cache.bytes", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getSize(); }
+        });
+    }
+
+    // Shows the counters kept by the movie cache along with the rest of the metrics
+    private static void RegisterMovieCacheGauges(final MovieCache cache){
+        Metrics metrics = Metrics.getInstance();
+        metrics.RegisterGauge("movie_cache.memory_hits", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getMemoryHitCount(); }
+        });
+        metrics.RegisterGauge("movie_cache.disk_hits", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getDiskHitCount(); }
+        });
+        metrics.RegisterGauge("movie_cache.misses", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getMissCount(); }
+        });
+        metrics.RegisterGauge("movie_cache.expired", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getExpiredCount(); }
+        });
+        metrics.RegisterGauge("movie_cache.bytes_saved", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getBytesSaved(); }
+        });
+        metrics.RegisterGauge("movie_cache.bytes", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return cache.getSize(); }
+        });
+    }
+
+    // Shows the counters kept by the coalescing and the scheduler, and the seed of the last random
+    // pick, along with the rest of the metrics
+    private static void RegisterGauges(){
+        Metrics metrics = Metrics.getInstance();
+        metrics.RegisterGauge("http.coalesced", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return coalescedRequests.get(); }
+        });
+        metrics.RegisterGauge("http.shared_results", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return sharedResults.get(); }
+        });
+        metrics.RegisterGauge("random.last_seed", new Metrics.Gauge() {
+            @Override
+            public long getValue() { return lastRandomSeed.get(); }
+        });
+        metrics.RegisterGauge("scheduler.throttled", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                RequestScheduler scheduler = CurrentScheduler();
+                return scheduler == null ? 0 : scheduler.getThrottledCount();
             }
-            catch(MalformedURLException e){
-                System.out.println(e.getMessage());
-                return null;
+        });
+        metrics.RegisterGauge("scheduler.retries", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                RequestScheduler scheduler = CurrentScheduler();
+                return scheduler == null ? 0 : scheduler.getRetryCount();
             }
-            catch(IOException e){
-                System.out.println(e.getMessage());
-                return null;
+        });
+        metrics.RegisterGauge("scheduler.hedges", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                RequestScheduler scheduler = CurrentScheduler();
+                return scheduler == null ? 0 : scheduler.getHedgeCount();
+            }
+        });
+        metrics.RegisterGauge("scheduler.hedges_won", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                RequestScheduler scheduler = CurrentScheduler();
+                return scheduler == null ? 0 : scheduler.getHedgeWinCount();
             }
+        });
+    }
+
+    // URLs for various parts of the TMDb API
+    // Amount of discover pages requested concurrently while searching for a movie
+    public static final int PREFETCH_PAGES = 3;
+
+    // TMDb returns 20 movies per discover page and serves no page after the 500th
+    private static final int RESULTS_PER_PAGE = 20;
+    private static final int MAX_DISCOVER_PAGES = 500;
+
+    // Search cursors older than this are ignored, as the rankings of the results shift over time
+    private static final long SEARCH_CURSOR_TTL_MS = 24 * 60 * 60 * 1000L;
+
+    // Picks sampled by a random search before settling for any eligible movie of its pages
+    public static final int RANDOM_ATTEMPTS = 4;
+
+    // Filter of the searches, disqualifying the movies in the database
+    private final TMDB_Parser.IdFilter discoverFilter = new TMDB_Parser.IdFilter() {
+        @Override
+        public boolean IsDisqualified(String id) {
+            return IsIdDisqualified(id);
         }
-        catch(JSONException e){
-            System.out.println(e.getMessage());
+    };
+
+    // Parser of the discover pages, stopping at the first movie that isn't in the database
+    private final TMDB_Parser.Parser<TMDB_Parser.DiscoverPage> discoverParser =
+            TMDB_Parser.DiscoverPage(discoverFilter);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Starts downloading the poster as soon as the parser of the details reads its path, so the
+    // download overlaps with the rest of the response and with showing the details
+    // The download is skipped when the network pool is full, rather than run inside the parse,
+    // and GetPoster loads the poster itself
+    private final TMDB_Parser.PosterListener posterPrefetch = new TMDB_Parser.PosterListener() {
+        @Override
+        public void OnPosterPath(final String posterPath) {
+            TaskRunner.getInstance().TrySubmit(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() {
+                    return GetPoster(posterPath);
+                }
+            });
+        }
+    };
+
+    /**
+     * Returns a Movie object with the necessary information retrieved from TMDb, poster included.
+     * Sends request to the TMDb API and then parses the data into a Movie object.
+     * If the poster can't be retrieved the movie is returned without it.
+     * @param id TMDb id of the movie, whose details are requested
+     * @return  Returns a Movie object, with the information retrieved from the API
+     */
+    public Movie GetMovieDetails(String id){
+        Movie movie = GetMovieInfo(id);
+        if(movie == null)
             return null;
+
+        // Waiting for the poster, whose download started while the details were parsed
+        // Cached posters are used without sending any request
+        movie.setPoster(GetPoster(movie.getPosterPath()));
+        return movie;
+    }
+
+    /**
+     * Looks up the TMDb movie of an IMDb id, e.g. of a title in a watch history export.
+     * Must not be called from the UI thread.
+     * @param imdbId    IMDb id of the movie (e.g. tt0133093)
+     * @return          The movie, without id if TMDb has no movie of the IMDb id, or null if
+     *                  something went wrong
+     */
+    public TMDB_Parser.DiscoverMovie FindByImdbId(String imdbId){
+        // Every id is looked up once per import, so the responses are kept out of the HTTP cache
+        return SendRequest(TMDB_Urls.FindByImdbId(API_KEY, imdbId), TMDB_Parser.FindMovie(), false);
+    }
+
+    /**
+     * Returns the details of the movie without its poster. The poster's download is started in
+     * the background as soon as its path is known, so a following GetPoster joins it.
+     * Movies seen recently are taken from the movie cache, without a request or any parsing.
+     * @param id    TMDb id of the movie, whose details are requested
+     * @return      The movie without its poster or null if something went wrong
+     */
+    public Movie GetMovieInfo(String id){
+        MovieCache cache = getMovieCache();
+        Movie cached = cache == null ? null : cache.Get(id);
+        if(cached != null){
+            if(cached.getPosterPath() != null)
+                posterPrefetch.OnPosterPath(cached.getPosterPath());
+            return cached;
         }
 
+        // Sending the request and parsing the response into a Movie object
+        String url = TMDB_Urls.MovieDetails(API_KEY, id);
+        Movie movie = SendRequest(url, TMDB_Parser.MovieDetails(id, posterPrefetch));
+        if(movie != null && cache != null){
+            // The response was just stored by the HTTP cache, its size is what a hit saves
+            HttpCache httpCache = getHttpCache();
+            cache.Put(movie, httpCache == null ? 0 : httpCache.GetStoredSize(url));
+        }
         return movie;
     }
 
+    /**
+     * Returns the details of the movie if they are in memory, e.g. loaded ahead by a search,
+     * without touching the disk or the network, so it can be called from the UI thread.
+     * @param id    TMDb id of the movie
+     * @return      The movie without its poster or null if it isn't in memory
+     */
+    public static Movie PeekMovieInfo(String id){
+        MovieCache cache;
+        synchronized (TMDB_Wrapper.class) {
+            cache = movieCache;
+        }
+        return cache == null ? null : cache.Peek(id);
+    }
+
+    /**
+     * Returns the poster if it is decoded in memory, without touching the disk or the network,
+     * so it can be called from the UI thread.
+     * @param posterPath    Poster's path of the movie (can be null)
+     * @return              The poster or null if it isn't in memory
+     */
+    public static Bitmap PeekPoster(String posterPath){
+        PosterCache cache;
+        synchronized (TMDB_Wrapper.class) {
+            cache = posterCache;
+        }
+        return cache == null || posterPath == null ? null : cache.Peek(TMDB_Urls.Poster(posterPath));
+    }
+
+    /**
+     * Returns the decoded poster, joining its download if it is already in progress.
+     * Must not be called from the UI thread.
+     * @param posterPath    Poster's path of the movie (can be null)
+     * @return              The poster or null if the movie has none or it couldn't be retrieved
+     */
+    public Bitmap GetPoster(String posterPath){
+        if(posterPath == null)
+            return null;
+        return getPosterCache().Get(TMDB_Urls.Poster(posterPath), CurrentTransport());
+    }
+
     /**
      * Returns a HashMap with all the available movie genres and their IDs.
+     * The genres are also stored in the GenreRegistry, replacing the ones known so far.
      * @return  HashMap with movie genres and genres' ids
      */
     public HashMap<String, Integer> GetMovieGenres(){
+        // Building the URL, sending the request and parsing the response into a HashMap
+        HashMap<String, Integer> returnValue = SendRequest(TMDB_Urls.Genres(API_KEY), TMDB_Parser.Genres());
+        if(returnValue == null)
+            return null;
 
-        HashMap<String, Integer> returnValue = new HashMap<>();
-        // Building the URL and sending the request
-        JSONObject response = SendRequest(GENRE_URL + API_KEY);
+        GenreRegistry.getInstance().Update(returnValue);
+        return returnValue;
+    }
 
-        // Parsing the JSON data into a HashMap
-        try {
-            JSONArray genres = response.getJSONArray("genres");
-            for (int i = 0; i < genres.length(); i++) {
-                JSONObject genre = genres.getJSONObject(i);
-                returnValue.put(genre.getString("name"), genre.getInt("id"));
-            }
-        }
-        catch(JSONException e){
-            System.out.println(e.getMessage());
+    /**
+     * Returns the known genres, waiting for the stored ones to be loaded and requesting them
+     * from TMDb if none are stored.
+     * Must not be called from the UI thread.
+     * @return  The genres or null if something went wrong
+     */
+    public GenreRegistry.Genres GetGenres(){
+        GenreRegistry.Genres genres = GenreRegistry.getInstance().Await();
+        if(genres != null && genres.size() > 0)
+            return genres;
+
+        if(GetMovieGenres() == null)
             return null;
-        }
-        genre_hashmap = returnValue;
-        return returnValue;
+        return GenreRegistry.getInstance().Peek();
+    }
+
+    /**
+     * Returns the TMDb id of a genre, requesting the genres from TMDb if the genre is unknown
+     * (e.g. added since the genres were stored).
+     * Must not be called from the UI thread.
+     * @param name  Name of the genre
+     * @return      Id of the genre or GenreRegistry.UNKNOWN_GENRE if there is no such genre
+     */
+    public int GetGenreID(String name){
+        GenreRegistry.Genres genres = GetGenres();
+        if(genres == null)
+            return GenreRegistry.UNKNOWN_GENRE;
+
+        int id = genres.GetId(name);
+        if(id == GenreRegistry.UNKNOWN_GENRE && GetMovieGenres() != null)
+            id = GenreRegistry.getInstance().Peek().GetId(name);
+        return id;
     }
 
     /**
@@ -147,112 +456,780 @@ public final class TMDB_Wrapper {
      * @return  The movie's id or null if something went wrong
      */
     public String GetPopularMovieID(int year, String with_genre){
-        // Building the basic url
-        StringBuilder urlString = new StringBuilder(DISCOVER_URL);
-        urlString.append(API_KEY);
-        // Appends filters to the url
-        urlString.append(SORT_CONSTRAINT + "popularity.desc");
-        urlString.append(ADULT_CONSTRAINT + "false");
-        urlString.append(VIDEO_CONSTRAINT + "false");
-        if(year != -1)
-            urlString.append(YEAR_CONSTRAINT + year);
-        if(with_genre != "")
-            if(genre_hashmap != null)
-                urlString.append(GENRE_CONSTRAINT + genre_hashmap.get(with_genre));
+        return GetPopularMovieID(year, with_genre, PREFETCH_PAGES);
+    }
+
+    /**
+     * Pipelined version of GetPopularMovieID.
+     * The first page is requested alone in order to learn the total amount of pages. After that
+     * the next prefetchPages pages are requested concurrently and checked in order, so the result
+     * is the same as scanning them one by one. As soon as a page with an eligible movie is found
+     * the rest of the requests are cancelled.
+     * The leading pages found to hold only movies of the database are remembered per filters, so
+     * the next search of the same filters starts after them (see DB_Gate.GetSearchCursor).
+     * Must not be called from the UI thread.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @param prefetchPages Amount of pages requested ahead of the one being checked (1 for serial)
+     * @return              The movie's id or null if something went wrong
+     */
+    public String GetPopularMovieID(int year, String with_genre, int prefetchPages){
+        return GetPopularMovieID(year, with_genre, prefetchPages, null);
+    }
+
+    /**
+     * Pipelined version of GetPopularMovieID that also skips the movies of the excluded filter,
+     * e.g. the ones already suggested during the session.
+     * Must not be called from the UI thread.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @param prefetchPages Amount of pages requested ahead of the one being checked (1 for serial)
+     * @param excluded      Movies to skip besides the ones in the database (can be null)
+     * @return              The movie's id or null if something went wrong
+     */
+    public String GetPopularMovieID(int year, String with_genre, int prefetchPages, TMDB_Parser.IdFilter excluded){
+        return GetPopularMovieID(year, with_genre, prefetchPages, excluded, MAX_DISCOVER_PAGES);
+    }
+
+    /**
+     * Version of GetPopularMovieID reading at most maxPages discover pages, e.g. for background
+     * work that must bound the traffic of a search. The search gives up if none of them holds an
+     * eligible movie. Must not be called from the UI thread.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @param prefetchPages Amount of pages requested ahead of the one being checked (1 for serial)
+     * @param excluded      Movies to skip besides the ones in the database (can be null)
+     * @param maxPages      Most pages requested after the ones skipped by the search cursor
+     * @return              The movie's id or null if none was found or something went wrong
+     */
+    public String GetPopularMovieID(int year, String with_genre, int prefetchPages,
+                                    TMDB_Parser.IdFilter excluded, int maxPages){
+        long start = Metrics.Start();
+        int[] pagesScanned = new int[1];
+        AtomicLong bytesRead = new AtomicLong();
+        String id = FindPopularMovieID(year, with_genre, prefetchPages, excluded, maxPages,
+                pagesScanned, bytesRead);
+        searchLatency.RecordSince(start);
+        searchPages.Record(pagesScanned[0]);
+        searchBytes.Record(bytesRead.get());
+        if(id != null && pagesScanned[0] == 0)
+            catalogHits.Increment();
+        return id;
+    }
+
+    /**
+     * Returns the TMDb id of a random movie matching the filters.
+     * The first page of the search is requested as a probe for the amount of results. Then a
+     * rank among the results is sampled and only the page holding it is requested, so a pick
+     * costs the same few requests whatever the amount of seen movies. A disqualified pick is
+     * sampled again, up to RANDOM_ATTEMPTS picks, after which one of the eligible movies of the
+     * pages already requested is picked. Recently requested pages come from the HTTP cache.
+     * Must not be called from the UI thread.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @param weighted      Favors the popular movies, sampling ranks with a density falling as
+     *                      1/sqrt(rank), instead of sampling them uniformly
+     * @param seed          Seed of the sampling, the same seed gives the same pick as long as the
+     *                      results and the seen movies are the same
+     * @param excluded      Filter disqualifying movies besides the ones in the database (can be null)
+     * @return              The movie's id or null if no eligible movie was found or something went wrong
+     */
+    public String GetRandomMovieID(int year, String with_genre, boolean weighted, long seed,
+                                   final TMDB_Parser.IdFilter excluded){
+        lastRandomSeed.set(seed);
+
+        // The seen movies are needed for the pick, so the first one waits for the database
+        if(!DB_Gate.getInstance().AwaitReady())
+            return null;
+
+        String baseURL = BuildDiscoverURL(year, with_genre);
+        if(baseURL == null)
+            return null;
+
+        TMDB_Parser.IdFilter filter = excluded == null
+                ? discoverFilter
+                : new TMDB_Parser.IdFilter() {
+                    @Override
+                    public boolean IsDisqualified(String id) {
+                        return IsIdDisqualified(id) || excluded.IsDisqualified(id);
+                    }
+                };
+
+        // Pages requested by number, sorted so the last resort pick is reproducible
+        TreeMap<Integer, TMDB_Parser.DiscoverPage> fetched = new TreeMap<>();
+        try {
+            TMDB_Parser.DiscoverPage probe = SendRequest(BuildPageURL(baseURL, 1), TMDB_Parser.DiscoverIds());
+            if(probe == null)
+                return null;
+            fetched.put(1, probe);
+
+            int pages = Math.min(probe.totalPages, MAX_DISCOVER_PAGES);
+            int results = Math.min(probe.totalResults, pages * RESULTS_PER_PAGE);
+            Random random = new Random(seed);
+            for (int attempt = 0; attempt < RANDOM_ATTEMPTS && results > 0; attempt++) {
+                double sample = random.nextDouble();
+                int rank = (int) (results * (weighted ? sample * sample : sample));
+                int pageNumber = rank / RESULTS_PER_PAGE + 1;
+
+                TMDB_Parser.DiscoverPage page = fetched.get(pageNumber);
+                if(page == null){
+                    page = SendRequest(BuildPageURL(baseURL, pageNumber), TMDB_Parser.DiscoverIds());
+                    if(page == null)
+                        break;
+                    fetched.put(pageNumber, page);
+                }
+                if(page.ids.isEmpty())
+                    continue;
+
+                // The results may have shifted since the probe, so the index is kept in the page
+                String id = page.ids.get(Math.min(rank % RESULTS_PER_PAGE, page.ids.size() - 1));
+                if(!filter.IsDisqualified(id))
+                    return id;
+            }
+
+            // Every pick was disqualified, settling for an eligible movie of the pages requested
+            ArrayList<String> eligible = new ArrayList<>();
+            for (TMDB_Parser.DiscoverPage page: fetched.values()) {
+                for (String id: page.ids) {
+                    if(!filter.IsDisqualified(id))
+                        eligible.add(id);
+                }
+            }
+            return eligible.isEmpty() ? null : eligible.get(random.nextInt(eligible.size()));
+        }
+        finally {
+            randomPages.Record(fetched.size());
+        }
+    }
+
+    // Body of GetPopularMovieID, counting the discover pages read into pagesScanned[0] and the
+    // bytes of the responses it received from the network into bytesRead
+    private String FindPopularMovieID(int year, String with_genre, int prefetchPages,
+                                      final TMDB_Parser.IdFilter excluded, int maxPages,
+                                      int[] pagesScanned, final AtomicLong bytesRead){
+        // The seen movies are needed for the search, so the first one waits for the database
+        if(!DB_Gate.getInstance().AwaitReady())
+            return null;
+
+        final String baseURL = BuildDiscoverURL(year, with_genre);
+        if(baseURL == null)
+            return null;
+
+        final TMDB_Parser.IdFilter filter = excluded == null
+                ? discoverFilter
+                : new TMDB_Parser.IdFilter() {
+                    @Override
+                    public boolean IsDisqualified(String id) {
+                        return IsIdDisqualified(id) || excluded.IsDisqualified(id);
+                    }
+                };
+
+        // Answering from the local catalog when it has a match, with no request sent
+        int genreID = with_genre.equals("") ? -1 : GetGenreID(with_genre);
+        String localID = MovieCatalog.getInstance().FindMovie(year, genreID, filter);
+        if(localID != null)
+            return localID;
+
+        final TMDB_Parser.Parser<TMDB_Parser.DiscoverPage> discoverParser = excluded == null
+                ? this.discoverParser
+                : TMDB_Parser.DiscoverPage(filter);
+
+        // The pages a previous search of the same filters found to hold only seen movies are
+        // skipped, the search starts right after them
+        long startedAt = System.currentTimeMillis();
+        String cursorKey = HttpCache.NormalizeKey(baseURL);
+        int cursor = DB_Gate.getInstance().GetSearchCursor(cursorKey, startedAt - SEARCH_CURSOR_TTL_MS);
 
         // Initially requesting the first page of results from the API.
         // If all of the results are in the database of seen/not interested movies then the next
-        // page is requested from the API.
-        // In the end the movie id is extracted from the JSON response and returned.
-        JSONObject response;
-        int pageCount = 1;
+        // pages are requested from the API.
+        // The pages are parsed as they arrive and reading stops at the first eligible movie.
+        TMDB_Parser.DiscoverPage firstPage = SendRequest(BuildPageURL(baseURL, cursor + 1), discoverParser, true, bytesRead);
+        pagesScanned[0]++;
+        if(firstPage != null && cursor > 0 && firstPage.ids.isEmpty()){
+            // The results shrank below the cursor, starting over
+            cursor = 0;
+            firstPage = SendRequest(BuildPageURL(baseURL, 1), discoverParser, true, bytesRead);
+            pagesScanned[0]++;
+        }
+        if(firstPage == null)
+            return null;
+        if(firstPage.eligibleId != null)
+            return firstPage.eligibleId;
+        // The pages past the limit are never requested
+        int totalPages = Math.min(firstPage.totalPages, cursor + Math.max(1, maxPages));
+
+        // Last page of the consecutive run of pages holding only movies of the database
+        int exhausted = cursor;
+        if(IsPageExhausted(firstPage, excluded))
+            exhausted++;
+
+        ArrayDeque<Future<TMDB_Parser.DiscoverPage>> window = new ArrayDeque<>();
+        int nextPage = cursor + 2;
         try {
-            do {
-                urlString.append(PAGE_CONSTRAINT + pageCount);
-                response = SendRequest(urlString.toString());
-                try {
-                    JSONArray page_movies = response.getJSONArray("results");
-                    String id = null;
-                    for (int i = 0; i < page_movies.length(); i++) {
-                        id = page_movies.getJSONObject(i).getString("id");
-                        if (!IsIdDisqualified(id))
-                            return id;
-                    }
-                    pageCount++;
-                } catch (JSONException e) {
-                    System.out.println(e.getMessage());
-                    return null;
+            while (true) {
+                // Keeping the window of in-flight pages full
+                while (nextPage <= totalPages && window.size() < Math.max(1, prefetchPages)) {
+                    final String pageURL = BuildPageURL(baseURL, nextPage++);
+                    window.add(TaskRunner.getInstance().Submit(new Callable<TMDB_Parser.DiscoverPage>() {
+                        @Override
+                        public TMDB_Parser.DiscoverPage call() {
+                            return SendRequest(pageURL, discoverParser, true, bytesRead);
+                        }
+                    }));
                 }
-            } while (pageCount <= response.getInt("total_pages"));
-            return null;
+                if(window.isEmpty())
+                    return null;
+
+                // Pages are checked in order, so the most popular eligible movie is returned
+                int pageNumber = nextPage - window.size();
+                TMDB_Parser.DiscoverPage page = window.poll().get();
+                pagesScanned[0]++;
+                if(page == null)
+                    return null;
+                if(page.eligibleId != null)
+                    return page.eligibleId;
+                if(exhausted == pageNumber - 1 && IsPageExhausted(page, excluded))
+                    exhausted++;
+            }
         }
-        catch(JSONException e){
+        catch(ExecutionException e){
             System.out.println(e.getMessage());
             return null;
         }
+        catch(InterruptedException e){
+            // The search was cancelled
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        finally {
+            for (Future<TMDB_Parser.DiscoverPage> page: window) {
+                page.cancel(true);
+            }
+            if(exhausted > cursor)
+                DB_Gate.getInstance().StoreSearchCursor(cursorKey, exhausted, startedAt);
+        }
     }
 
     /**
-     * Method responsible for sending all the requests to the API and returning the result as
-     * a JSON object
-     * @param url   The url for sending the request to TMDb API
-     * @return      JSONObject with response data
+     * Checks if a page without an eligible movie holds only movies of the database, i.e. the
+     * page would not have an eligible movie for any later search either. Movies skipped only by
+     * the excluded filter don't count, as the filter doesn't outlive the session.
+     * @param page      Page read without finding an eligible movie
+     * @param excluded  Filter of the search besides the database (can be null)
+     * @return          True if the page can be skipped by the next searches
      */
-    private JSONObject SendRequest(String url){
+    private boolean IsPageExhausted(TMDB_Parser.DiscoverPage page, TMDB_Parser.IdFilter excluded){
+        if(page.ids.isEmpty())
+            return false;
+        if(excluded == null)
+            return true;
+        for (String id: page.ids) {
+            if(!IsIdDisqualified(id))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns all the movies of an unfiltered discover page, used for filling the local catalog.
+     * Must not be called from the UI thread.
+     * @param page  Number of the requested page
+     * @return      The movies of the page or null if something went wrong
+     */
+    public ArrayList<TMDB_Parser.DiscoverMovie> GetDiscoverMovies(int page){
+        return SendRequest(BuildPageURL(BuildDiscoverURL(-1, ""), page), TMDB_Parser.DiscoverMovies());
+    }
+
+    /**
+     * Builds the discover URL with the filters given, without the page constraint.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @return              The URL of the search or null if the genre is unknown
+     */
+    private String BuildDiscoverURL(int year, String with_genre){
+        int genreID = -1;
+        if(!with_genre.equals("")) {
+            // Searching without the genre would suggest movies the user didn't ask for
+            genreID = GetGenreID(with_genre);
+            if(genreID == GenreRegistry.UNKNOWN_GENRE)
+                return null;
+        }
+        return TMDB_Urls.Discover(API_KEY, year, genreID);
+    }
+
+    /**
+     * Appends the page constraint to a discover URL.
+     * A new String is built for every page, so the constraint is never repeated.
+     * @param baseURL   URL returned by BuildDiscoverURL
+     * @param page      Number of the requested page
+     * @return          URL of the page
+     */
+    private String BuildPageURL(String baseURL, int page){
+        return TMDB_Urls.Page(baseURL, page);
+    }
+
+    /**
+     * Asynchronous version of GetMovieInfo, delivering the details without waiting for the poster.
+     * The request is sent from a background thread and the result is delivered on the UI thread.
+     * @param id        TMDb id of the movie, whose details are requested
+     * @param callback  Receives the Movie object without its poster or null if something went wrong
+     * @return          Future of the request, used for cancelling it
+     */
+    public Future<Movie> GetMovieInfoAsync(final String id, TaskRunner.Callback<Movie> callback){
+        return TaskRunner.getInstance().Execute(new Callable<Movie>() {
+            @Override
+            public Movie call() {
+                return GetMovieInfo(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of GetPoster.
+     * The poster is retrieved in the background and delivered on the UI thread.
+     * @param posterPath    Poster's path of the movie
+     * @param callback      Receives the poster or null if it couldn't be retrieved
+     * @return              Future of the download, used for cancelling the wait for it
+     */
+    public Future<Bitmap> GetPosterAsync(final String posterPath, TaskRunner.Callback<Bitmap> callback){
+        return TaskRunner.getInstance().Execute(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return GetPoster(posterPath);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of GetMovieGenres.
+     * The request is sent from a background thread and the result is delivered on the UI thread.
+     * @param callback  Receives the genres' HashMap or null if something went wrong
+     * @return          Future of the request, used for cancelling it
+     */
+    public Future<HashMap<String, Integer>> GetMovieGenresAsync(TaskRunner.Callback<HashMap<String, Integer>> callback){
+        return TaskRunner.getInstance().Execute(new Callable<HashMap<String, Integer>>() {
+            @Override
+            public HashMap<String, Integer> call() {
+                return GetMovieGenres();
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of GetGenres.
+     * @param callback  Receives the genres or null if something went wrong
+     * @return          Future of the request, used for cancelling it
+     */
+    public Future<GenreRegistry.Genres> GetGenresAsync(TaskRunner.Callback<GenreRegistry.Genres> callback){
+        return TaskRunner.getInstance().Execute(new Callable<GenreRegistry.Genres>() {
+            @Override
+            public GenreRegistry.Genres call() {
+                return GetGenres();
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of GetPopularMovieID.
+     * The search runs on a background thread and the result is delivered on the UI thread.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @param callback      Receives the movie's id or null if something went wrong
+     * @return              Future of the search, used for cancelling it
+     */
+    public Future<String> GetPopularMovieIDAsync(final int year, final String with_genre, TaskRunner.Callback<String> callback){
+        return GetPopularMovieIDAsync(year, with_genre, null, callback);
+    }
+
+    /**
+     * Asynchronous version of GetPopularMovieID that also skips the movies of the excluded filter.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @param excluded      Movies to skip besides the ones in the database (can be null)
+     * @param callback      Receives the movie's id or null if something went wrong
+     * @return              Future of the search, used for cancelling it
+     */
+    public Future<String> GetPopularMovieIDAsync(final int year, final String with_genre,
+                                                 final TMDB_Parser.IdFilter excluded, TaskRunner.Callback<String> callback){
+        return TaskRunner.getInstance().Execute(new Callable<String>() {
+            @Override
+            public String call() {
+                return GetPopularMovieID(year, with_genre, PREFETCH_PAGES, excluded);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of GetRandomMovieID.
+     * The pick is made in the background and the result is delivered on the UI thread.
+     * @param year          Filter that restricts movies selected by year of release (-1 if N/A)
+     * @param with_genre    The genre the movie must include ("" if N/A)
+     * @param weighted      Favors the popular movies instead of sampling them uniformly
+     * @param seed          Seed of the sampling
+     * @param excluded      Filter disqualifying movies besides the ones in the database (can be null)
+     * @param callback      Receives the movie's id or null if something went wrong
+     * @return              Future of the pick, used for cancelling it
+     */
+    public Future<String> GetRandomMovieIDAsync(final int year, final String with_genre, final boolean weighted,
+                                                final long seed, final TMDB_Parser.IdFilter excluded,
+                                                TaskRunner.Callback<String> callback){
+        return TaskRunner.getInstance().Execute(new Callable<String>() {
+            @Override
+            public String call() {
+                return GetRandomMovieID(year, with_genre, weighted, seed, excluded);
+            }
+        }, callback);
+    }
+
+    /**
+     * Method responsible for sending all the requests to the API and parsing the response
+     * with the parser given.
+     * Responses are served from the HTTP cache while fresh. Stale responses are served while
+     * they are revalidated in the background, or revalidated with a conditional request first
+     * if they are too old. If the network fails the stale response is served instead.
+     * @param url       The url for sending the request to TMDb API
+     * @param parser    Parser pulling the needed fields out of the response
+     * @return          The parsed response or null if something went wrong
+     */
+    private <T> T SendRequest(String url, TMDB_Parser.Parser<T> parser){
+        return SendRequest(url, parser, true);
+    }
+
+    /**
+     * Version of SendRequest that can bypass the HTTP cache, for responses that are unlikely to
+     * be requested again and would only evict the ones that are (e.g. IMDb id lookups).
+     * @param url       The url for sending the request to TMDb API
+     * @param parser    Parser pulling the needed fields out of the response
+     * @param useCache  Serves and stores the response through the HTTP cache
+     * @return          The parsed response or null if something went wrong
+     */
+    private <T> T SendRequest(String url, TMDB_Parser.Parser<T> parser, boolean useCache){
+        return SendRequest(url, parser, useCache, null);
+    }
+
+    /**
+     * Version of SendRequest adding the bytes of the response it received from the network to
+     * a total, e.g. of a search. Responses served from the cache or by another caller's request
+     * add nothing.
+     * @param url       The url for sending the request to TMDb API
+     * @param parser    Parser pulling the needed fields out of the response
+     * @param useCache  Serves and stores the response through the HTTP cache
+     * @param bytesRead Total the bytes of the response body read are added to (can be null)
+     * @return          The parsed response or null if something went wrong
+     */
+    private <T> T SendRequest(String url, TMDB_Parser.Parser<T> parser, boolean useCache,
+                              AtomicLong bytesRead){
+        long start = Metrics.Start();
         try {
-            URL queryURL = new URL(url);
-            HttpURLConnection con = (HttpURLConnection) queryURL.openConnection();
+            HttpCache cache = useCache ? getHttpCache() : null;
+            HttpCache.Entry cached = cache == null ? null : cache.Get(url);
+            if(cached != null){
+                if(cached.IsFresh()){
+                    cache.RecordHit();
+                    return ParseString(url, cached.getBody(), parser);
+                }
+                if(cached.CanServeWhileRevalidating()){
+                    cache.RecordStaleHit();
+                    RevalidateInBackground(url, cached);
+                    return ParseString(url, cached.getBody(), parser);
+                }
+            }
+            else if(cache != null){
+                cache.RecordMiss();
+            }
 
-            InputStream response = new BufferedInputStream(con.getInputStream());
-            String responseString = StreamToString(response);
-            return StringToJSON(responseString);
-        }catch (MalformedURLException e){
-            System.out.println(e.getMessage());
-            return null;
+            // Only one request per key is sent at a time, the other callers wait for its response
+            String key = HttpCache.NormalizeKey(url);
+            while (true) {
+                InFlight flight = new InFlight(parser);
+                InFlight leader = inFlight.putIfAbsent(key, flight);
+                if(leader == null){
+                    try {
+                        T result = FetchAndParse(url, cache, cached, parser, flight, false);
+                        flight.result = result;
+                        return result;
+                    }
+                    finally {
+                        inFlight.remove(key, flight);
+                        flight.done.countDown();
+                        if(bytesRead != null)
+                            bytesRead.addAndGet(flight.bytesRead);
+                    }
+                }
+
+                if(!AwaitInFlight(leader))
+                    return null;
+                if(leader.body != null || leader.httpError || (leader.parser == parser && leader.result != null)){
+                    coalescedRequests.incrementAndGet();
+                    return TakeInFlight(url, leader, parser);
+                }
+                // The leader was cancelled, its connection failed or its parser stopped early, so
+                // it has nothing to share and the request is sent again, by this caller unless
+                // another one took over
+                inFlight.remove(key, leader);
+            }
         }
-        catch(IOException e){
-            System.out.println(e.getMessage());
-            return null;
+        finally {
+            requestLatency[Endpoint(url)].RecordSince(start);
         }
     }
 
+    /**
+     * Waits for a request sent by another caller.
+     * @param leader    The request being sent
+     * @return          False if the caller was cancelled while waiting
+     */
+    private static boolean AwaitInFlight(InFlight leader){
+        try {
+            leader.done.await();
+            return true;
+        }
+        catch(InterruptedException e){
+            // The caller was cancelled
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Takes the response of a request sent by another caller, once it is done.
+     * Callers using the same parser share the parsed result, the rest parse the response body.
+     * An error response of the API is shared as a failure.
+     * @param url       The url of the request
+     * @param leader    The request sent
+     * @param parser    Parser pulling the needed fields out of the response
+     * @return          The parsed response or null if something went wrong
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T TakeInFlight(String url, InFlight leader, TMDB_Parser.Parser<T> parser){
+        if(leader.parser == parser && leader.result != null){
+            sharedResults.incrementAndGet();
+            return (T) leader.result;
+        }
+        if(leader.body == null)
+            return null;
+        return ParseString(url, leader.body, parser);
+    }
 
     /**
-     * Simple method for parsing the raw data from JSON format to JSONObject
-     * @param data  String containng the JSON datra
-     * @return      JSONObject with the data of the string passed
+     * Sends the request to the API, conditional on the validators of the cached entry if given,
+     * parses the response straight from the connection's stream and stores it in the HTTP cache.
+     * A response the parser stopped reading early (e.g. at the first eligible movie of a discover
+     * page) is not read any further for the cache or the waiting callers, unless keepWhole is set.
+     * @param url       The url for sending the request to TMDb API
+     * @param cache     HTTP cache storing the response, or null if it isn't stored
+     * @param cached    Cached entry of the url or null if there is none
+     * @param parser    Parser pulling the needed fields out of the response
+     * @param flight    Receives the whole response body for the callers waiting on the request
+     *                  (can be null)
+     * @param keepWhole Reads and stores the whole response even if the parser stops early, e.g.
+     *                  for refreshing the cached entry
+     * @return          The parsed response, the parsed cached response if the server answered
+     *                  that it was not modified or the network failed, or null if nothing is available
      */
-    private JSONObject StringToJSON(String data){
-        try{
-            JSONObject json = new JSONObject(data);
-            return json;
+    private <T> T FetchAndParse(String url, HttpCache cache, HttpCache.Entry cached,
+                                TMDB_Parser.Parser<T> parser, InFlight flight, boolean keepWhole){
+        HttpRequest request = new HttpRequest(url, API_TIMEOUT_MS);
+        if(cached != null){
+            if(cached.getEtag() != null)
+                request.SetHeader("If-None-Match", cached.getEtag());
+            if(cached.getLastModified() != null)
+                request.SetHeader("If-Modified-Since", cached.getLastModified());
         }
-        catch(JSONException e){
+
+        try(HttpResponse response = CurrentTransport().Execute(request)){
+            if(cached != null && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED){
+                cache.RecordRevalidation();
+                cache.Refresh(url, cached, response.getHeader("Cache-Control"));
+                if(flight != null)
+                    flight.body = cached.getBody();
+                return ParseString(url, cached.getBody(), parser);
+            }
+            if(response.getCode() != HttpURLConnection.HTTP_OK){
+                // The waiting callers would get the same answer
+                if(flight != null)
+                    flight.httpError = true;
+                throw new IOException("TMDb responded with " + response.getCode());
+            }
+
+            // The bytes read by the parser are also kept for the cache and the waiting callers
+            boolean capture = cache != null || flight != null;
+            CapturingInputStream body = new CapturingInputStream(response.getBody(), capture);
+            // Parsed as the body arrives, so the time of reading the body is included
+            long parseStart = Metrics.Start();
+            JsonReader json = new JsonReader(new InputStreamReader(body, UTF_8));
+            T result;
+            try {
+                result = parser.Parse(json);
+            }
+            finally {
+                if(flight != null)
+                    flight.bytesRead = body.getCount();
+            }
+            parseLatency[Endpoint(url)].RecordSince(parseStart);
+
+            // The early stop of the parser is kept, a partly read response isn't stored, and the
+            // waiting callers share the parsed result or send the request themselves
+            if(capture && (keepWhole || IsDocumentEnded(json))){
+                body.Drain();
+                String captured = body.getCaptured();
+                if(cache != null)
+                    cache.Put(url, captured, response.getHeader("Cache-Control"),
+                            response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                if(flight != null){
+                    flight.body = captured;
+                    flight.bytesRead = body.getCount();
+                }
+            }
+            return result;
+        }
+        catch(IOException | IllegalStateException e){
             System.out.println(e.getMessage());
+            if(cached != null){
+                // Stale data is better than no data when offline
+                cache.RecordStaleHit();
+                if(flight != null)
+                    flight.body = cached.getBody();
+                return ParseString(url, cached.getBody(), parser);
+            }
             return null;
         }
     }
 
     /**
-     * Method for parsing the stream of data from the API's response as a String
-     * Code snippet was taken from https://www.baeldung.com/convert-input-stream-to-string
-     * (Method 4) by https://www.baeldung.com/author/eugen/
-     * @param stream    Stream returned from an API request
-     * @return          Returns stream as string
+     * Checks if the parser read the whole response, looking only at what is left in the reader.
+     * @param json  Reader of the response, after the parser returned
+     * @return      True if nothing but whitespace is left after the response
+     */
+    private static boolean IsDocumentEnded(JsonReader json){
+        try {
+            return json.peek() == JsonToken.END_DOCUMENT;
+        }
+        catch(IOException | IllegalStateException e){
+            // Something other than the end of the document is left
+            return false;
+        }
+    }
+
+    /**
+     * Revalidates the cached entry of the url on the network pool, once per url at a time.
+     * @param url       The url of the cached entry
+     * @param cached    The cached entry
      */
-    private String StreamToString(InputStream stream){
-        // Code snippet from https://www.baeldung.com/convert-input-stream-to-string
-        StringBuilder returnValue = new StringBuilder();
-        try(Reader rdr = new BufferedReader(new InputStreamReader(stream))){
-            int c = 0;
-            while((c= rdr.read()) != -1){
-                returnValue.append((char)c);
+    private void RevalidateInBackground(final String url, final HttpCache.Entry cached){
+        final String key = HttpCache.NormalizeKey(url);
+        synchronized (revalidating) {
+            if(!revalidating.add(key))
+                return;
+        }
+        // The stale entry is already being served, so a full pool skips the revalidation
+        // instead of running it on the caller
+        Future<Void> revalidation = TaskRunner.getInstance().TrySubmit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    FetchAndParse(url, getHttpCache(), cached, TMDB_Parser.Skip(), null, true);
+                }
+                finally {
+                    synchronized (revalidating) {
+                        revalidating.remove(key);
+                    }
+                }
+                return null;
+            }
+        });
+        if(revalidation.isCancelled()){
+            synchronized (revalidating) {
+                revalidating.remove(key);
             }
-        }catch(IOException e){
+        }
+    }
+
+    /**
+     * Returns the HTTP cache of the API responses, opening it on first use.
+     * Must not be called from the UI thread before the cache has been opened.
+     * @return  The HTTP cache, or null if no wrapper has been created yet
+     */
+    public static synchronized HttpCache getHttpCache() {
+        if(httpCache == null && cacheContext != null) {
+            httpCache = new HttpCache(new File(cacheContext.getCacheDir(), "http"), HTTP_CACHE_SIZE);
+            RegisterCacheGauges(httpCache);
+        }
+        return httpCache;
+    }
+
+    /**
+     * Returns the cache of the posters, opening it on first use.
+     * Must not be called from the UI thread before the cache has been opened.
+     * @return  The cache of the posters, or null if no wrapper has been created yet
+     */
+    public static synchronized PosterCache getPosterCache() {
+        if(posterCache == null && cacheContext != null)
+            posterCache = new PosterCache(new File(cacheContext.getCacheDir(), "posters"),
+                    POSTER_DISK_CACHE_SIZE, POSTER_MEMORY_CACHE_SIZE, new PosterDecoder());
+        return posterCache;
+    }
+
+    /**
+     * Returns the cache of the parsed movie details, opening it on first use.
+     * Must not be called from the UI thread before the cache has been opened.
+     * @return  The movie cache, or null if no wrapper has been created yet
+     */
+    public static synchronized MovieCache getMovieCache() {
+        if(movieCache == null && cacheContext != null) {
+            movieCache = new MovieCache(new File(cacheContext.getCacheDir(), "movies"),
+                    MOVIE_DISK_CACHE_SIZE, MOVIE_MEMORY_CACHE_ENTRIES, MOVIE_CACHE_TTL_MS);
+            RegisterMovieCacheGauges(movieCache);
+        }
+        return movieCache;
+    }
+
+    /**
+     * @return  Amount of requests that were not sent, as they joined an identical one in flight
+     */
+    public static long getCoalescedRequestCount() { return coalescedRequests.get(); }
+
+    /**
+     * @return  Amount of the coalesced requests that also shared the parsed result
+     */
+    public static long getSharedResultCount() { return sharedResults.get(); }
+
+    /**
+     * Simple method for parsing a response kept as a String (e.g. in the cache)
+     * @param url       The url of the response, used for the metrics
+     * @param data      String containing the JSON data
+     * @param parser    Parser pulling the needed fields out of the response
+     * @return          The parsed response or null if it is malformed
+     */
+    private <T> T ParseString(String url, String data, TMDB_Parser.Parser<T> parser){
+        long start = Metrics.Start();
+        try(JsonReader reader = new JsonReader(new StringReader(data))){
+            return parser.Parse(reader);
+        }
+        catch(IOException | IllegalStateException e){
             System.out.println(e.getMessage());
             return null;
         }
-        return returnValue.toString();
+        finally {
+            parseLatency[Endpoint(url)].RecordSince(start);
+        }
+    }
+
+    /**
+     * @param url   The url of a request, with or without the API key
+     * @return      Index of the endpoint of the url in ENDPOINTS
+     */
+    private static int Endpoint(String url){
+        if(url.contains("/3/discover/"))
+            return 0;
+        if(url.contains("/3/movie/"))
+            return 1;
+        if(url.contains("/3/genre/"))
+            return 2;
+        if(url.contains("/3/find/"))
+            return 3;
+        return 4;
     }
 
     /**
@@ -263,4 +1240,76 @@ public final class TMDB_Wrapper {
     private boolean IsIdDisqualified(String id){
         return DB_Gate.getInstance().DoesMovieExist(id);
     }
+
+    /**
+     * A request being sent to the API, with the response handed to the callers that joined it.
+     * The fields are written by the sending caller before done is released. A request ending
+     * with neither a body nor an error response was cancelled or lost its connection.
+     */
+    private static final class InFlight {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final TMDB_Parser.Parser<?> parser;
+        volatile Object result = null;
+        volatile String body = null;
+        volatile boolean httpError = false;
+        // Bytes of the response body read from the network by the request
+        volatile long bytesRead = 0;
+
+        InFlight(TMDB_Parser.Parser<?> parser){
+            this.parser = parser;
+        }
+    }
+
+    /**
+     * Stream keeping a copy of the bytes read through it, so a response parsed straight from the
+     * connection can still be stored in the cache.
+     */
+    private static final class CapturingInputStream extends FilterInputStream {
+
+        private final ByteArrayOutputStream captured;
+        private long count = 0;
+
+        CapturingInputStream(InputStream in, boolean capture){
+            super(in);
+            captured = capture ? new ByteArrayOutputStream(16 * 1024) : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1){
+                count++;
+                if(captured != null)
+                    captured.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0){
+                count += read;
+                if(captured != null)
+                    captured.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        // Reads the rest of the stream, so the copy holds the whole response
+        void Drain() throws IOException {
+            byte[] buffer = new byte[4096];
+            while(read(buffer, 0, buffer.length) != -1);
+        }
+
+        // Bytes read through the stream so far
+        long getCount(){
+            return count;
+        }
+
+        String getCaptured() throws IOException {
+            return captured.toString("UTF-8");
+        }
+    }
 }
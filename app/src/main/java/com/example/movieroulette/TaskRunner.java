@@ -0,0 +1,246 @@
+package com.example.movieroulette;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Singleton class responsible for running blocking work (network calls, database access)
+ * away from the UI thread.
+ * Tasks run on a shared bounded thread pool and their results are delivered back to the UI
+ * thread through a Callback, unless the task was cancelled in the meantime.
+ */
+public final class TaskRunner {
+
+    // Size of the shared pool and the amount of tasks allowed to wait for a thread
+    private static final int POOL_SIZE = 4;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Size of the pool used for the requests a background task fans out (e.g. page prefetch)
+    private static final int NETWORK_POOL_SIZE = 6;
+
+    private final ThreadPoolExecutor executor;
+
+    // Kept apart from the shared pool, so a task waiting on its own requests can't starve them
+    private final ThreadPoolExecutor networkExecutor;
+
+    // Handler used for posting the results back to the UI thread
+    private final Handler mainHandler;
+
+    private static TaskRunner instance = null;
+
+    private TaskRunner(){
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new BackgroundThreadFactory("MovieRoulette-bg-"));
+        executor.allowCoreThreadTimeOut(true);
+        networkExecutor = new ThreadPoolExecutor(NETWORK_POOL_SIZE, NETWORK_POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new BackgroundThreadFactory("MovieRoulette-net-"),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+                        // Optional work is dropped, the rest is run by the caller
+                        if(task instanceof OptionalTask)
+                            ((OptionalTask<?>) task).cancel(false);
+                        else if(!pool.isShutdown())
+                            task.run();
+                    }
+                });
+        networkExecutor.allowCoreThreadTimeOut(true);
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized TaskRunner getInstance(){
+        if(instance == null){
+            instance = new TaskRunner();
+        }
+        return instance;
+    }
+
+    /**
+     * Interface used for receiving the result of a task on the UI thread.
+     * As with the rest of the application a null result means that something went wrong.
+     * @param <T>   Type of the result
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Runs the task on the shared pool and delivers its result to the callback on the UI thread.
+     * The callback is never called if the returned Future is cancelled before the task finishes.
+     * @param task      Blocking work to be done in the background
+     * @param callback  Callback receiving the result on the UI thread (can be null)
+     * @return          Future of the task, used for waiting on or cancelling it
+     */
+    public <T> Future<T> Execute(Callable<T> task, final Callback<T> callback){
+        CallbackTask<T> future = new CallbackTask<>(task, callback);
+        try {
+            executor.execute(future);
+        }
+        catch(RejectedExecutionException e){
+            // Pool and queue are full, the task is dropped and reported as failed
+            System.out.println(e.getMessage());
+            future.cancel(false);
+            if(callback != null) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(null);
+                    }
+                });
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Runs a request on the network pool without any callback.
+     * Meant to be called from background tasks that wait on the result themselves, never from
+     * the UI thread, as a full pool runs the request on the calling thread.
+     * @param request   Blocking request to be done in the background
+     * @return          Future of the request
+     */
+    public <T> Future<T> Submit(Callable<T> request){
+        return networkExecutor.submit(request);
+    }
+
+    /**
+     * Runs optional work (e.g. a prefetch) on the network pool without any callback.
+     * Unlike Submit it never runs on the calling thread: when the pool is full the work is
+     * dropped and the returned Future is cancelled.
+     * @param request   Blocking request to be done in the background
+     * @return          Future of the request, cancelled if it was dropped
+     */
+    public <T> Future<T> TrySubmit(Callable<T> request){
+        OptionalTask<T> task = new OptionalTask<>(request);
+        networkExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Posts the runnable to the UI thread.
+     * @param runnable  Code to be run on the UI thread
+     */
+    public void PostToMainThread(Runnable runnable){
+        mainHandler.post(runnable);
+    }
+
+    /**
+     * FutureTask that hands its result over to the UI thread once completed.
+     */
+    private final class CallbackTask<T> extends FutureTask<T> {
+
+        private final Callback<T> callback;
+
+        CallbackTask(Callable<T> task, Callback<T> callback){
+            super(task);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if(callback == null || isCancelled())
+                return;
+
+            T result = null;
+            try {
+                result = get();
+            }
+            catch(Exception e){
+                System.out.println(e.getMessage());
+            }
+
+            final T delivered = result;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The owner of the task may have gone away while the result was in transit
+                    if(!isCancelled())
+                        callback.onResult(delivered);
+                }
+            });
+        }
+    }
+
+    /**
+     * Task of the network pool that is dropped instead of run by the caller when the pool is full.
+     */
+    private static final class OptionalTask<T> extends FutureTask<T> {
+
+        OptionalTask(Callable<T> request){
+            super(request);
+        }
+    }
+
+    /**
+     * Simple holder of the tasks started by a component (e.g. an activity), so that all of them
+     * can be cancelled together when the component goes away.
+     */
+    public static final class TaskGroup {
+
+        private final ArrayList<Future<?>> tasks = new ArrayList<>();
+
+        /**
+         * Keeps track of the task, dropping the ones that are already done.
+         * @param task  Future returned when the task was started
+         */
+        public synchronized void Add(Future<?> task){
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                if(tasks.get(i).isDone())
+                    tasks.remove(i);
+            }
+            tasks.add(task);
+        }
+
+        /**
+         * Cancels every task of the group that hasn't finished yet.
+         */
+        public synchronized void CancelAll(){
+            for (Future<?> task: tasks) {
+                task.cancel(true);
+            }
+            tasks.clear();
+        }
+    }
+
+    /**
+     * Creates named threads with background priority, so they don't compete with the UI thread.
+     */
+    private static final class BackgroundThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        BackgroundThreadFactory(String prefix){
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, prefix + count.getAndIncrement());
+        }
+    }
+}
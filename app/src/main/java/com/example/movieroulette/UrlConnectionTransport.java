@@ -0,0 +1,139 @@
+package com.example.movieroulette;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HttpTransport sending the requests through HttpURLConnection.
+ * Connections to the TMDb hosts are kept alive and pooled by the platform, as long as every
+ * response body is fully read and closed, which HttpResponse.close takes care of.
+ * Bodies are requested gzipped and every request has a deadline covering the whole exchange.
+ */
+public final class UrlConnectionTransport implements HttpTransport {
+
+    // Idle keep-alive connections kept per host (api.themoviedb.org and image.tmdb.org)
+    private static final String MAX_CONNECTIONS = "8";
+
+    private static final int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    // Bytes received over the network, before decompression
+    private static final Metrics.Counter bytesReceived = Metrics.getInstance().Counter("net.bytes_received");
+
+    static {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", MAX_CONNECTIONS);
+    }
+
+    @Override
+    public HttpResponse Execute(HttpRequest request) throws IOException {
+        final long deadline = System.nanoTime() + request.getTimeoutMs() * 1000000L;
+
+        final HttpURLConnection con = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        try {
+            con.setConnectTimeout(request.getTimeoutMs());
+            con.setReadTimeout(request.getTimeoutMs());
+            con.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header: request.getHeaders().entrySet()) {
+                con.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            int code = con.getResponseCode();
+            InputStream body = code >= HttpURLConnection.HTTP_BAD_REQUEST ? con.getErrorStream() : con.getInputStream();
+            if(body == null)
+                body = new ByteArrayInputStream(new byte[0]);
+            else {
+                body = new CountingInputStream(body);
+                if("gzip".equalsIgnoreCase(con.getContentEncoding()))
+                    body = new GZIPInputStream(body, GZIP_BUFFER_SIZE);
+            }
+
+            HashMap<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header: con.getHeaderFields().entrySet()) {
+                // The status line is returned with a null name
+                if(header.getKey() != null && !header.getValue().isEmpty())
+                    headers.put(header.getKey(), header.getValue().get(0));
+            }
+
+            return new HttpResponse(code, headers, new DeadlineInputStream(body, deadline, con)) {
+                @Override
+                protected void Abort() {
+                    con.disconnect();
+                }
+            };
+        }
+        catch(IOException e){
+            con.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Stream adding the bytes read through it to the bytes received.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1)
+                bytesReceived.Increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0)
+                bytesReceived.Add(read);
+            return read;
+        }
+    }
+
+    /**
+     * Stream failing once the deadline of the request has passed, as the read timeout of the
+     * connection only limits the wait of every single read.
+     */
+    private static final class DeadlineInputStream extends FilterInputStream {
+
+        private final long deadline;
+        private final HttpURLConnection con;
+
+        DeadlineInputStream(InputStream in, long deadline, HttpURLConnection con){
+            super(in);
+            this.deadline = deadline;
+            this.con = con;
+        }
+
+        private void CheckDeadline() throws IOException {
+            if(System.nanoTime() > deadline){
+                con.disconnect();
+                throw new SocketTimeoutException("Request deadline exceeded");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            CheckDeadline();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            CheckDeadline();
+            return super.read(buffer, offset, length);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.movieroulette;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Imports a watch history exported as CSV (e.g. the ratings or watchlist export of IMDb) into
+ * the movie table, so the movies already watched are not suggested.
+ * The file is streamed record by record and the IMDb id of every row is resolved to a TMDb
+ * movie through the find endpoint, with a bounded amount of requests in flight. The resolved
+ * movies are written in batches, each in a single transaction along with the amount of rows
+ * done, so an interrupted import resumes after the last batch written. Only the requests in
+ * flight and the current batch are kept in memory, whatever the size of the file.
+ */
+public final class WatchHistoryImporter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Rows resolved concurrently, kept below the network pool so searches still get threads
+    private static final int MAX_IN_FLIGHT = 4;
+
+    // Rows written to the database per transaction
+    private static final int BATCH_ROWS = 100;
+
+    private static final Metrics.Histogram batchLatency = Metrics.getInstance().Histogram("import.batch_write");
+    private static final Metrics.Counter rowsCounter = Metrics.getInstance().Counter("import.rows");
+
+    private final TMDB_Wrapper tmdb;
+
+    /**
+     * @param tmdb  Wrapper used for resolving the IMDb ids
+     */
+    public WatchHistoryImporter(TMDB_Wrapper tmdb){
+        this.tmdb = tmdb;
+    }
+
+    /**
+     * Receives the progress of an import on the UI thread, after every batch written.
+     */
+    public interface Listener {
+        void OnProgress(Progress progress);
+    }
+
+    /**
+     * Progress of an import. The rows are counted without the header.
+     */
+    public static final class Progress {
+        public int rowsDone = 0;
+        // Rows resolved to a TMDb movie, including the movies already in the database
+        public int imported = 0;
+        // Rows without an IMDb id or whose id has no TMDb movie
+        public int unmatched = 0;
+        public long bytesRead = 0;
+        // Size of the file, -1 if unknown
+        public long totalBytes = -1;
+        // False if the import stopped before the end of the file, it resumes on the next run
+        public boolean finished = false;
+
+        /**
+         * @return  Percentage of the file read, -1 if the size of the file is unknown
+         */
+        public int getPercent(){
+            if(totalBytes <= 0)
+                return -1;
+            return (int) Math.min(100, bytesRead * 100 / totalBytes);
+        }
+
+        private Progress Copy(){
+            Progress copy = new Progress();
+            copy.rowsDone = rowsDone;
+            copy.imported = imported;
+            copy.unmatched = unmatched;
+            copy.bytesRead = bytesRead;
+            copy.totalBytes = totalBytes;
+            copy.finished = finished;
+            return copy;
+        }
+    }
+
+    /**
+     * Asynchronous version of Import.
+     * The import runs in the background and its final progress is delivered on the UI thread.
+     * Cancelling the returned Future interrupts the import, which resumes on the next run.
+     * @param context   Context used for reading the file
+     * @param uri       Uri of the file, as picked by the user
+     * @param listener  Receives the progress after every batch written (can be null)
+     * @param callback  Receives the final progress or null if the import couldn't start
+     * @return          Future of the import, used for cancelling it
+     */
+    public Future<Progress> ImportAsync(final Context context, final Uri uri, final Listener listener,
+                                        TaskRunner.Callback<Progress> callback){
+        final Context appContext = context.getApplicationContext();
+        return TaskRunner.getInstance().Execute(new Callable<Progress>() {
+            @Override
+            public Progress call() {
+                return Import(appContext, uri, listener);
+            }
+        }, callback);
+    }
+
+    /**
+     * Imports the file, resuming a previous import of the same file.
+     * Must not be called from the UI thread.
+     * @param context   Context used for reading the file
+     * @param uri       Uri of the file, as picked by the user
+     * @param listener  Receives the progress after every batch written (can be null)
+     * @return          The final progress or null if the import couldn't start
+     */
+    public Progress Import(Context context, Uri uri, Listener listener){
+        long totalBytes = -1;
+        try(ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r")){
+            if(descriptor != null)
+                totalBytes = descriptor.getStatSize();
+        }
+        catch(IOException e){
+            // The progress is shown without a percentage
+            System.out.println(e.getMessage());
+        }
+
+        try(InputStream in = context.getContentResolver().openInputStream(uri)){
+            if(in == null)
+                return null;
+            return Import(in, totalBytes, uri.toString(), listener);
+        }
+        catch(IOException e){
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Imports the CSV text of the stream, resuming a previous import of the same source.
+     * The first record is taken as the header. In every row the first field holding an IMDb id
+     * is used, so the column doesn't have to be known.
+     * Must not be called from the UI thread.
+     * @param stream        Stream of the CSV text
+     * @param totalBytes    Size of the text, -1 if unknown
+     * @param source        Key of the file, under which the progress is kept
+     * @param listener      Receives the progress after every batch written (can be null)
+     * @return              The final progress or null if the import couldn't start
+     * @throws IOException  If the file could not be read
+     */
+    public Progress Import(InputStream stream, long totalBytes, String source, Listener listener) throws IOException {
+        if(!DB_Gate.getInstance().AwaitReady())
+            return null;
+
+        Progress progress = DB_Gate.getInstance().GetImportProgress(source);
+        progress.totalBytes = totalBytes;
+
+        CountingInputStream counting = new CountingInputStream(stream);
+        CsvReader csv = new CsvReader(new InputStreamReader(counting, UTF_8));
+
+        // Skipping the header and the rows written by a previous run
+        boolean endOfFile = csv.ReadRecord() == null;
+        for (int i = 0; i < progress.rowsDone && !endOfFile; i++) {
+            endOfFile = csv.ReadRecord() == null;
+        }
+
+        ArrayDeque<Future<TMDB_Parser.DiscoverMovie>> window = new ArrayDeque<>();
+        ArrayList<TMDB_Parser.DiscoverMovie> batch = new ArrayList<>();
+        int batchRows = 0;
+        try {
+            while (true) {
+                // Keeping the window of rows being resolved full
+                while (!endOfFile && window.size() < MAX_IN_FLIGHT) {
+                    ArrayList<String> record = csv.ReadRecord();
+                    if(record == null)
+                        endOfFile = true;
+                    else
+                        window.add(Resolve(FindImdbId(record)));
+                }
+                if(window.isEmpty())
+                    break;
+
+                // Rows are taken in order, so the rows done are always the first ones of the file
+                TMDB_Parser.DiscoverMovie movie = window.poll().get();
+                if(movie == null){
+                    // The request failed, the import stops before the row and resumes from it
+                    WriteBatch(source, batch, progress, counting, listener);
+                    return progress;
+                }
+
+                progress.rowsDone++;
+                rowsCounter.Increment();
+                batchRows++;
+                if(movie.id == null){
+                    progress.unmatched++;
+                }
+                else{
+                    progress.imported++;
+                    batch.add(movie);
+                }
+
+                if(batchRows >= BATCH_ROWS){
+                    if(!WriteBatch(source, batch, progress, counting, listener))
+                        return null;
+                    batchRows = 0;
+                }
+            }
+
+            if(!WriteBatch(source, batch, progress, counting, listener))
+                return null;
+            DB_Gate.getInstance().FinishImport(source);
+            progress.finished = true;
+            return progress;
+        }
+        catch(ExecutionException e){
+            System.out.println(e.getMessage());
+            return null;
+        }
+        catch(InterruptedException e){
+            // The import was cancelled, keeping the rows already resolved
+            WriteBatch(source, batch, progress, counting, listener);
+            Thread.currentThread().interrupt();
+            return progress;
+        }
+        finally {
+            for (Future<TMDB_Parser.DiscoverMovie> row: window) {
+                row.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Writes the batch along with the progress and reports it.
+     * @return  True if the batch was written
+     */
+    private boolean WriteBatch(String source, ArrayList<TMDB_Parser.DiscoverMovie> batch, Progress progress,
+                               CountingInputStream counting, final Listener listener){
+        long start = Metrics.Start();
+        if(!DB_Gate.getInstance().ImportMovies(source, batch, progress))
+            return false;
+        batchLatency.RecordSince(start);
+        batch.clear();
+
+        progress.bytesRead = counting.getCount();
+        if(listener != null){
+            final Progress reported = progress.Copy();
+            TaskRunner.getInstance().PostToMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    listener.OnProgress(reported);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Starts resolving the IMDb id of a row.
+     * @param imdbId    IMDb id of the row, null if the row has none
+     * @return          Future of the movie, without id if nothing matched, null if the request failed
+     */
+    private Future<TMDB_Parser.DiscoverMovie> Resolve(final String imdbId){
+        if(imdbId == null){
+            // Nothing to request, the row is unmatched
+            FutureTask<TMDB_Parser.DiscoverMovie> unmatched = new FutureTask<>(new Callable<TMDB_Parser.DiscoverMovie>() {
+                @Override
+                public TMDB_Parser.DiscoverMovie call() {
+                    return new TMDB_Parser.DiscoverMovie();
+                }
+            });
+            unmatched.run();
+            return unmatched;
+        }
+        return TaskRunner.getInstance().Submit(new Callable<TMDB_Parser.DiscoverMovie>() {
+            @Override
+            public TMDB_Parser.DiscoverMovie call() {
+                return tmdb.FindByImdbId(imdbId);
+            }
+        });
+    }
+
+    /**
+     * @param record    Fields of a row
+     * @return          The first field holding an IMDb id (e.g. tt0133093) or null if none does
+     */
+    static String FindImdbId(ArrayList<String> record){
+        for (String field: record) {
+            String value = field.trim();
+            if(value.length() < 9 || !value.startsWith("tt"))
+                continue;
+            boolean digits = true;
+            for (int i = 2; i < value.length() && digits; i++) {
+                char c = value.charAt(i);
+                digits = c >= '0' && c <= '9';
+            }
+            if(digits)
+                return value;
+        }
+        return null;
+    }
+
+    /**
+     * Counts the bytes read from the file, for the progress of the import.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0)
+                count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() { return count; }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.movieroulette;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal HTTP/1.1 server standing in for the TMDb API and image hosts in tests.
+ * Shared by the local unit tests and the instrumented tests.
+ * Serves canned responses by path prefix, supports keep-alive and gzip, and can add latency to
+ * every response, so the client side can be measured without the real API. It can also throttle
+ * or fail the next requests and slow down single requests, the way the real API does under load.
+ */
+public class LocalTmdbServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile int latencyMs = 0;
+    private volatile boolean gzip = true;
+
+    // Next requests answered with an error instead of their route
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile int failureCode = 429;
+    private volatile String failureRetryAfter = null;
+
+    // Next requests delayed on top of the latency
+    private final AtomicInteger delaysLeft = new AtomicInteger();
+    private volatile int delayMs = 0;
+
+    public LocalTmdbServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AcceptLoop();
+            }
+        }, "LocalTmdbServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Serves the body with status 200 for every request whose path starts with the prefix.
+     * When the prefixes of several routes match, the longest one is used.
+     */
+    public void Serve(String pathPrefix, String body){
+        Serve(pathPrefix, 200, body);
+    }
+
+    public void Serve(String pathPrefix, int code, String body){
+        routes.put(pathPrefix, new Route(code, body.getBytes(UTF_8)));
+    }
+
+    /**
+     * Serves the binary body with status 200, e.g. an image.
+     */
+    public void Serve(String pathPrefix, byte[] body){
+        routes.put(pathPrefix, new Route(200, body));
+    }
+
+    public void SetLatency(int latencyMs) { this.latencyMs = latencyMs; }
+
+    public void SetGzip(boolean gzip) { this.gzip = gzip; }
+
+    /**
+     * Answers the next requests with the error code, e.g. 429 when throttling.
+     * @param count         Amount of requests to fail
+     * @param code          Status code of the failures
+     * @param retryAfter    Value of the Retry-After header (null for none)
+     */
+    public void FailNext(int count, int code, String retryAfter){
+        failureCode = code;
+        failureRetryAfter = retryAfter;
+        failuresLeft.set(count);
+    }
+
+    /**
+     * Delays the next requests, e.g. for making a slow tail request.
+     * @param count     Amount of requests to delay
+     * @param delayMs   Delay added to each of them
+     */
+    public void DelayNext(int count, int delayMs){
+        this.delayMs = delayMs;
+        delaysLeft.set(count);
+    }
+
+    public int getConnectionCount() { return connections.get(); }
+
+    public int getRequestCount() { return requests.get(); }
+
+    public String getBaseUrl() { return "http://127.0.0.1:" + serverSocket.getLocalPort(); }
+
+    /**
+     * @return  Transport sending the requests for the TMDb hosts to this server instead
+     */
+    public HttpTransport Transport(){
+        final HttpTransport delegate = new UrlConnectionTransport();
+        return new HttpTransport() {
+            @Override
+            public HttpResponse Execute(HttpRequest request) throws IOException {
+                String url = request.getUrl()
+                        .replace("https://api.themoviedb.org", getBaseUrl())
+                        .replace("https://image.tmdb.org", getBaseUrl());
+                HttpRequest local = new HttpRequest(url, request.getTimeoutMs());
+                local.getHeaders().putAll(request.getHeaders());
+                return delegate.Execute(local);
+            }
+        };
+    }
+
+    public void Close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void AcceptLoop(){
+        while(!serverSocket.isClosed()){
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        HandleConnection(socket);
+                    }
+                });
+                handler.setDaemon(true);
+                handler.start();
+            }
+            catch(IOException e){
+                return;
+            }
+        }
+    }
+
+    private void HandleConnection(Socket socket){
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while((requestLine = ReadLine(in)) != null){
+                boolean acceptsGzip = false;
+                String header;
+                while((header = ReadLine(in)) != null && !header.isEmpty()){
+                    if(header.toLowerCase().startsWith("accept-encoding:") && header.contains("gzip"))
+                        acceptsGzip = true;
+                }
+                requests.incrementAndGet();
+
+                String path = requestLine.split(" ")[1];
+                // The most specific route wins, e.g. /3/movie/603/credits over /3/movie/603
+                Route route = null;
+                int matched = -1;
+                for (Map.Entry<String, Route> candidate: routes.entrySet()) {
+                    String prefix = candidate.getKey();
+                    if(path.startsWith(prefix) && prefix.length() > matched){
+                        route = candidate.getValue();
+                        matched = prefix.length();
+                    }
+                }
+                if(route == null)
+                    route = new Route(404, "{}".getBytes(UTF_8));
+
+                String retryAfter = null;
+                if(TakeOne(failuresLeft)){
+                    route = new Route(failureCode, "{\"status_code\":25}".getBytes(UTF_8));
+                    retryAfter = failureRetryAfter;
+                }
+
+                int delay = latencyMs + (TakeOne(delaysLeft) ? delayMs : 0);
+                if(delay > 0)
+                    Thread.sleep(delay);
+
+                byte[] body = route.body;
+                boolean gzipped = gzip && acceptsGzip;
+                if(gzipped){
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream zip = new GZIPOutputStream(compressed);
+                    zip.write(body);
+                    zip.close();
+                    body = compressed.toByteArray();
+                }
+                String head = "HTTP/1.1 " + route.code + " X\r\n" +
+                        "Content-Type: application/json\r\n" +
+                        (gzipped ? "Content-Encoding: gzip\r\n" : "") +
+                        (retryAfter != null ? "Retry-After: " + retryAfter + "\r\n" : "") +
+                        "Content-Length: " + body.length + "\r\n" +
+                        "Connection: keep-alive\r\n\r\n";
+                // Written at once, so the response isn't split across packets
+                ByteArrayOutputStream response = new ByteArrayOutputStream(head.length() + body.length);
+                response.write(head.getBytes(UTF_8));
+                response.write(body);
+                out.write(response.toByteArray());
+                out.flush();
+            }
+        }
+        catch(SocketException e){
+            // Client went away
+        }
+        catch(IOException | InterruptedException e){
+            System.out.println(e.getMessage());
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch(IOException e){
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    // Takes one from the counter unless it is already zero
+    private static boolean TakeOne(AtomicInteger counter){
+        int left;
+        do {
+            left = counter.get();
+            if(left <= 0)
+                return false;
+        } while(!counter.compareAndSet(left, left - 1));
+        return true;
+    }
+
+    private static String ReadLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != -1){
+            if(c == '\n')
+                return line.toString();
+            if(c != '\r')
+                line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static final class Route {
+        final int code;
+        final byte[] body;
+
+        Route(int code, byte[] body){
+            this.code = code;
+            this.body = body;
+        }
+    }
+}
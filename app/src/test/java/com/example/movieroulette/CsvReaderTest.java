@@ -0,0 +1,69 @@
+package com.example.movieroulette;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of CsvReader and of the IMDb ids picked by WatchHistoryImporter.
+ */
+public class CsvReaderTest {
+
+    @Test
+    public void readsPlainRecords() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("Const,Title\ntt0133093,The Matrix\n"));
+        assertEquals(Arrays.asList("Const", "Title"), csv.ReadRecord());
+        assertEquals(Arrays.asList("tt0133093", "The Matrix"), csv.ReadRecord());
+        assertNull(csv.ReadRecord());
+    }
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("tt1,\"Crouching Tiger, Hidden Dragon\",\"The \"\"Best\"\"\",\"Two\nlines\"\r\n"));
+        assertEquals(Arrays.asList("tt1", "Crouching Tiger, Hidden Dragon", "The \"Best\"", "Two\nlines"), csv.ReadRecord());
+        assertNull(csv.ReadRecord());
+    }
+
+    @Test
+    public void keepsEmptyFieldsAndLastLineWithoutBreak() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,,\r\nb,\"\",c"));
+        assertEquals(Arrays.asList("a", "", ""), csv.ReadRecord());
+        assertEquals(Arrays.asList("b", "", "c"), csv.ReadRecord());
+        assertNull(csv.ReadRecord());
+    }
+
+    @Test
+    public void readsRecordsAcrossBufferRefills() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("tt").append(1000000 + i).append(",\"Title, ").append(i).append("\"\r\n");
+        }
+        CsvReader csv = new CsvReader(new StringReader(text.toString()));
+        int count = 0;
+        ArrayList<String> record;
+        while((record = csv.ReadRecord()) != null){
+            assertEquals("tt" + (1000000 + count), record.get(0));
+            assertEquals("Title, " + count, record.get(1));
+            count++;
+        }
+        assertEquals(5000, count);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnUnterminatedQuote() throws IOException {
+        new CsvReader(new StringReader("tt1,\"open")).ReadRecord();
+    }
+
+    @Test
+    public void findsImdbIdInAnyColumn() {
+        assertEquals("tt0133093", WatchHistoryImporter.FindImdbId(
+                new ArrayList<>(Arrays.asList("10", "The Matrix", " tt0133093 "))));
+        assertNull(WatchHistoryImporter.FindImdbId(
+                new ArrayList<>(Arrays.asList("Const", "tt", "ttabcdefgh", "https://boxd.it/2a9q"))));
+    }
+}
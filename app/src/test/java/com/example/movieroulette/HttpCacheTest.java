@@ -0,0 +1,75 @@
+package com.example.movieroulette;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the freshness of the HttpCache entries, which decides whether
+ * TMDB_Wrapper serves a cached response or sends a conditional request first.
+ */
+public class HttpCacheTest {
+
+    private static final String URL = "https://api.themoviedb.org/3/movie/603?api_key=KEY";
+    private static final String BODY = "{\"id\":603}";
+
+    private File directory;
+    private HttpCache cache;
+
+    @Before
+    public void createCache() throws IOException {
+        directory = Files.createTempDirectory("http").toFile();
+        cache = new HttpCache(directory, 1024 * 1024);
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if(files != null){
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void servesFreshResponse() {
+        cache.Put(URL, BODY, "public, max-age=3600", "\"v1\"", null);
+
+        HttpCache.Entry entry = cache.Get(URL);
+        assertNotNull(entry);
+        assertTrue(entry.IsFresh());
+        assertEquals(BODY, entry.getBody());
+    }
+
+    @Test
+    public void revalidatesNoCacheResponseBeforeServingIt() {
+        cache.Put(URL, BODY, "no-cache", "\"v1\"", null);
+
+        // Neither fresh nor servable while revalidating, so a conditional request goes first
+        HttpCache.Entry entry = cache.Get(URL);
+        assertNotNull(entry);
+        assertFalse(entry.IsFresh());
+        assertFalse(entry.CanServeWhileRevalidating());
+        assertEquals("\"v1\"", entry.getEtag());
+    }
+
+    @Test
+    public void keepsNoCacheAfterRevalidation() {
+        HttpCache.Entry stored = cache.Put(URL, BODY, "max-age=0, stale-while-revalidate=86400", "\"v1\"", null);
+        assertTrue(stored.CanServeWhileRevalidating());
+
+        // The 304 response switched the resource to no-cache
+        cache.Refresh(URL, stored, "no-cache");
+        HttpCache.Entry entry = cache.Get(URL);
+        assertFalse(entry.IsFresh());
+        assertFalse(entry.CanServeWhileRevalidating());
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.movieroulette;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the counters and histograms of Metrics.
+ */
+public class MetricsTest {
+
+    @Test
+    public void returnsSameMetricForName() {
+        Metrics metrics = Metrics.getInstance();
+        assertSame(metrics.Counter("test.same"), metrics.Counter("test.same"));
+        assertSame(metrics.Histogram("test.same"), metrics.Histogram("test.same"));
+    }
+
+    @Test
+    public void approximatesPercentiles() {
+        Metrics.Histogram histogram = Metrics.getInstance().Histogram("test.percentiles");
+        for (int i = 1; i <= 100; i++) {
+            histogram.Record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        // 50 falls in the bucket of 32 to 63, 99 in the bucket of 64 to 127 capped by the max
+        assertEquals(63, histogram.getPercentile(0.50));
+        assertEquals(100, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void dumpsCountersAndGauges() {
+        Metrics metrics = Metrics.getInstance();
+        metrics.Counter("test.counter").Add(3);
+        metrics.RegisterGauge("test.gauge", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return 7;
+            }
+        });
+        String json = metrics.ToJson();
+        assertTrue(json.contains("\"test.counter\": 3"));
+        assertTrue(json.contains("\"test.gauge\": 7"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.movieroulette;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the memory and disk levels of MovieCache.
+ */
+public class MovieCacheTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("movies").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if(files != null){
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsRecordsBackFromDisk() {
+        new MovieCache(directory, 1024 * 1024, 8, DAY_MS).Put(Matrix(), 5000);
+
+        // A new cache starts with an empty memory level
+        MovieCache cache = new MovieCache(directory, 1024 * 1024, 8, DAY_MS);
+        Movie movie = cache.Get("603");
+        assertNotNull(movie);
+        assertEquals("The Matrix", movie.getTitle());
+        assertEquals("Set in the 22nd century, \"The Matrix\"\u2026", movie.getOverview());
+        assertEquals("tt0133093", movie.getImdbID());
+        assertNull(movie.getPosterPath());
+        assertEquals(Arrays.asList("Action", "Science Fiction"), movie.getGenres());
+        assertEquals(Arrays.asList("Keanu Reeves", "Laurence Fishburne"), movie.getCast());
+        assertEquals(Arrays.asList("Lana Wachowski", "Lilly Wachowski"), movie.getDirectors());
+        assertEquals(1, cache.getDiskHitCount());
+        assertEquals(5000, cache.getBytesSaved());
+
+        // Now served from memory
+        assertNotNull(cache.Peek("603"));
+        assertEquals(1, cache.getMemoryHitCount());
+        assertEquals(10000, cache.getBytesSaved());
+    }
+
+    @Test
+    public void dropsExpiredRecords() {
+        MovieCache cache = new MovieCache(directory, 1024 * 1024, 8, 0);
+        cache.Put(Matrix(), 5000);
+        assertNull(cache.Get("603"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getExpiredCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void boundsMemoryLevel() {
+        MovieCache cache = new MovieCache(directory, 1024 * 1024, 1, DAY_MS);
+        cache.Put(Matrix(), 0);
+        Movie other = Matrix();
+        other.setTmdb_id("604");
+        cache.Put(other, 0);
+
+        assertNull(cache.Peek("603"));
+        assertNotNull(cache.Peek("604"));
+        assertNotNull(cache.Get("603"));
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    @Test
+    public void returnsCopies() {
+        MovieCache cache = new MovieCache(directory, 1024 * 1024, 8, DAY_MS);
+        Movie movie = Matrix();
+        cache.Put(movie, 0);
+        movie.setTitle("Changed");
+        movie.getCast().clear();
+
+        Movie cached = cache.Peek("603");
+        assertEquals("The Matrix", cached.getTitle());
+        assertEquals(2, cached.getCast().size());
+        cached.getGenres().clear();
+        assertEquals(2, cache.Peek("603").getGenres().size());
+    }
+
+    private static Movie Matrix(){
+        Movie movie = new Movie();
+        movie.setTmdb_id("603");
+        movie.setTitle("The Matrix");
+        movie.setOverview("Set in the 22nd century, \"The Matrix\"\u2026");
+        movie.setImdbID("tt0133093");
+        movie.setGenres(new ArrayList<>(Arrays.asList("Action", "Science Fiction")));
+        movie.setCast(new ArrayList<>(Arrays.asList("Keanu Reeves", "Laurence Fishburne")));
+        movie.setDirectors(new ArrayList<>(Arrays.asList("Lana Wachowski", "Lilly Wachowski")));
+        return movie;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.movieroulette;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of RequestScheduler against LocalTmdbServer, which injects the throttling,
+ * the failures and the slow requests.
+ */
+public class RequestSchedulerTest {
+
+    private static final String DISCOVER_URL = "https://api.themoviedb.org/3/discover/movie?page=1";
+
+    private LocalTmdbServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new LocalTmdbServer();
+        server.SetGzip(false);
+        server.Serve("/3/discover/movie", "{\"page\":1,\"results\":[]}");
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.Close();
+    }
+
+    @Test
+    public void retriesThrottledRequests() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(server.Transport(), 20, 100, 3, -1);
+        server.FailNext(2, 429, "0");
+
+        try(HttpResponse response = scheduler.Execute(new HttpRequest(DISCOVER_URL, 10000))){
+            assertEquals(200, response.getCode());
+        }
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, scheduler.getThrottledCount());
+        assertEquals(2, scheduler.getRetryCount());
+    }
+
+    @Test
+    public void retriesServerErrors() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(server.Transport(), 20, 100, 3, -1);
+        server.FailNext(1, 503, null);
+
+        try(HttpResponse response = scheduler.Execute(new HttpRequest(DISCOVER_URL, 10000))){
+            assertEquals(200, response.getCode());
+        }
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, scheduler.getThrottledCount());
+    }
+
+    @Test
+    public void honorsRetryAfter() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(server.Transport(), 20, 100, 3, -1);
+        server.FailNext(1, 429, "1");
+
+        long start = System.currentTimeMillis();
+        try(HttpResponse response = scheduler.Execute(new HttpRequest(DISCOVER_URL, 10000))){
+            assertEquals(200, response.getCode());
+        }
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    public void returnsLastResponseAfterMaxRetries() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(server.Transport(), 20, 100, 2, -1);
+        server.FailNext(10, 429, "0");
+
+        try(HttpResponse response = scheduler.Execute(new HttpRequest(DISCOVER_URL, 10000))){
+            assertEquals(429, response.getCode());
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void limitsRequestRatePerHost() throws IOException {
+        // A burst of 2, then 10 requests per second
+        RequestScheduler scheduler = new RequestScheduler(server.Transport(), 2, 10, 0, -1);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 6; i++) {
+            scheduler.Execute(new HttpRequest(DISCOVER_URL, 10000)).close();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + "ms", elapsed >= 350);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWhenBudgetExceedsDeadline() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(server.Transport(), 1, 1, 0, -1);
+        scheduler.Execute(new HttpRequest(DISCOVER_URL, 10000)).close();
+        scheduler.Execute(new HttpRequest(DISCOVER_URL, 200)).close();
+    }
+
+    @Test
+    public void hedgesSlowRequest() throws IOException {
+        RequestScheduler scheduler = new RequestScheduler(server.Transport(), 20, 100, 0, 100);
+        server.DelayNext(1, 3000);
+
+        long start = System.currentTimeMillis();
+        try(HttpResponse response = scheduler.Execute(new HttpRequest(DISCOVER_URL, 10000))){
+            assertEquals(200, response.getCode());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + "ms", elapsed < 2000);
+        assertEquals(1, scheduler.getHedgeCount());
+        assertEquals(1, scheduler.getHedgeWinCount());
+    }
+
+    @Test
+    public void parsesRetryAfterFormats() {
+        assertEquals(120000, RequestScheduler.ParseRetryAfter("120"));
+        assertEquals(0, RequestScheduler.ParseRetryAfter(null));
+        assertEquals(0, RequestScheduler.ParseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.movieroulette;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of UrlConnectionTransport against LocalTmdbServer.
+ */
+public class UrlConnectionTransportTest {
+
+    private static final String DISCOVER_PAGE = "{\"page\":1,\"total_pages\":5,\"results\":[{\"id\":550}]}";
+
+    private LocalTmdbServer server;
+    private HttpTransport transport;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new LocalTmdbServer();
+        server.Serve("/3/discover/movie", DISCOVER_PAGE);
+        transport = server.Transport();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.Close();
+    }
+
+    @Test
+    public void decodesGzippedBody() throws IOException {
+        try(HttpResponse response = transport.Execute(new HttpRequest("https://api.themoviedb.org/3/discover/movie?page=1", 5000))){
+            assertEquals(200, response.getCode());
+            assertEquals("gzip", response.getHeader("content-encoding"));
+            assertEquals(DISCOVER_PAGE, ReadBody(response.getBody()));
+        }
+    }
+
+    @Test
+    public void reusesKeepAliveConnection() throws IOException {
+        int rounds = 50;
+        for (int i = 0; i < rounds; i++) {
+            try(HttpResponse response = transport.Execute(new HttpRequest("https://api.themoviedb.org/3/discover/movie?page=" + i, 5000))){
+                assertEquals(200, response.getCode());
+            }
+        }
+
+        assertEquals(rounds, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void returnsErrorResponses() throws IOException {
+        server.Serve("/3/movie/1", 404, "{\"status_code\":34}");
+        try(HttpResponse response = transport.Execute(new HttpRequest("https://api.themoviedb.org/3/movie/1", 5000))){
+            assertEquals(404, response.getCode());
+            assertEquals("{\"status_code\":34}", ReadBody(response.getBody()));
+        }
+    }
+
+    @Test
+    public void servesLongestMatchingRoute() throws IOException {
+        // Registered in both orders, so the match doesn't depend on the order of the routes
+        server.Serve("/3/movie/603/credits", "{\"cast\":[]}");
+        server.Serve("/3/movie/", 404, "{\"status_code\":34}");
+        server.Serve("/3/movie/603", "{\"id\":603}");
+        try(HttpResponse response = transport.Execute(new HttpRequest("https://api.themoviedb.org/3/movie/603?language=en", 5000))){
+            assertEquals(200, response.getCode());
+            assertEquals("{\"id\":603}", ReadBody(response.getBody()));
+        }
+        try(HttpResponse response = transport.Execute(new HttpRequest("https://api.themoviedb.org/3/movie/603/credits", 5000))){
+            assertEquals("{\"cast\":[]}", ReadBody(response.getBody()));
+        }
+        try(HttpResponse response = transport.Execute(new HttpRequest("https://api.themoviedb.org/3/movie/604", 5000))){
+            assertEquals(404, response.getCode());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsAfterDeadline() throws IOException {
+        server.SetLatency(1000);
+        transport.Execute(new HttpRequest("https://api.themoviedb.org/3/discover/movie?page=1", 200)).close();
+    }
+
+    private static String ReadBody(InputStream body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while((read = body.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toString("UTF-8");
+    }
+}
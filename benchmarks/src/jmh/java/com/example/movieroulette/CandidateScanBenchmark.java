@@ -0,0 +1,106 @@
+package com.example.movieroulette;
+
+import android.util.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The scan of GetPopularMovieID for the first movie that hasn't been seen, without the network.
+ * Every page but the last holds only seen movies and the eligible movie is the last one of the
+ * last page, so every candidate is checked against the seen set. The seen set is filled up to its
+ * size with other ids, checked the way DB_Gate.DoesMovieExist checks them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CandidateScanBenchmark {
+
+    private static final Pattern ID = Pattern.compile("\"id\": (\\d+)");
+
+    // Pages scanned until the eligible movie
+    @Param({"1", "5"})
+    public int pages;
+
+    // Movies in the seen set
+    @Param({"100", "10000", "100000"})
+    public int seenSize;
+
+    private byte[][] bodies;
+    private String eligibleId;
+    private TMDB_Parser.Parser<TMDB_Parser.DiscoverPage> parser;
+
+    @Setup
+    public void setUp() throws IOException {
+        String page = new String(Fixtures.Load(Fixtures.DISCOVER_PAGE), Fixtures.UTF_8);
+        final IntHashSet seen = new IntHashSet(seenSize);
+
+        // Every page gets its own ids, all of them seen except the last one of the last page
+        bodies = new byte[pages][];
+        for (int p = 0; p < pages; p++) {
+            Matcher matcher = ID.matcher(page);
+            StringBuffer body = new StringBuffer();
+            ArrayList<Integer> ids = new ArrayList<>();
+            while(matcher.find()){
+                int id = Integer.parseInt(matcher.group(1)) + p * 1000000;
+                ids.add(id);
+                matcher.appendReplacement(body, "\"id\": " + id);
+            }
+            matcher.appendTail(body);
+            bodies[p] = body.toString().getBytes(Fixtures.UTF_8);
+
+            for (int i = 0; i < ids.size(); i++) {
+                if(p == pages - 1 && i == ids.size() - 1)
+                    eligibleId = String.valueOf(ids.get(i));
+                else
+                    seen.add(ids.get(i));
+            }
+        }
+        Random random = new Random(42);
+        while(seen.size() < seenSize){
+            int id = 10000000 + random.nextInt(Integer.MAX_VALUE - 10000000);
+            seen.add(id);
+        }
+
+        parser = TMDB_Parser.DiscoverPage(new TMDB_Parser.IdFilter() {
+            @Override
+            public boolean IsDisqualified(String id) {
+                int parsed = Integer.parseInt(id);
+                synchronized (seen) {
+                    return seen.contains(parsed);
+                }
+            }
+        });
+    }
+
+    @Benchmark
+    public String scan() throws IOException {
+        for (int p = 0; p < pages; p++) {
+            TMDB_Parser.DiscoverPage page;
+            try(JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(bodies[p]), Fixtures.UTF_8))){
+                page = parser.Parse(reader);
+            }
+            if(page.eligibleId != null){
+                if(!page.eligibleId.equals(eligibleId))
+                    throw new IllegalStateException("Found " + page.eligibleId + " instead of " + eligibleId);
+                return page.eligibleId;
+            }
+        }
+        throw new IllegalStateException("No eligible movie");
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.movieroulette;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Responses of the TMDb API used by the benchmarks, loaded from the resources of the module.
+ */
+final class Fixtures {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // A discover page of 20 movies and the details of a movie, as TMDb returns them
+    static final String DISCOVER_PAGE = "discover_page.json";
+    static final String MOVIE_DETAILS = "movie_details.json";
+
+    private Fixtures(){
+        // Private Constructor, the class only holds the fixtures
+    }
+
+    /**
+     * @param name  Name of the fixture
+     * @return      The bytes of the fixture
+     * @throws IOException  If the fixture is missing
+     */
+    static byte[] Load(String name) throws IOException {
+        try(InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(name)){
+            if(in == null)
+                throw new IOException("Missing fixture " + name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
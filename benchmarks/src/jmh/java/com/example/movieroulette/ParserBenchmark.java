@@ -0,0 +1,104 @@
+package com.example.movieroulette;
+
+import android.util.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the recorded responses of TMDb.
+ * The responses are parsed from the bytes, as they come from the connection, and from a String,
+ * as they come from the HTTP cache (StreamToString was replaced by parsing from the stream).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+
+    // Filter letting every movie through, so the parse stops at the first one
+    private static final TMDB_Parser.IdFilter NONE_SEEN = new TMDB_Parser.IdFilter() {
+        @Override
+        public boolean IsDisqualified(String id) {
+            return false;
+        }
+    };
+
+    // Filter disqualifying every movie, so the whole page is parsed
+    private static final TMDB_Parser.IdFilter ALL_SEEN = new TMDB_Parser.IdFilter() {
+        @Override
+        public boolean IsDisqualified(String id) {
+            return true;
+        }
+    };
+
+    private byte[] discoverBytes;
+    private String discoverString;
+    private byte[] movieBytes;
+    private String movieString;
+
+    @Setup
+    public void setUp() throws IOException {
+        discoverBytes = Fixtures.Load(Fixtures.DISCOVER_PAGE);
+        discoverString = new String(discoverBytes, Fixtures.UTF_8);
+        movieBytes = Fixtures.Load(Fixtures.MOVIE_DETAILS);
+        movieString = new String(movieBytes, Fixtures.UTF_8);
+    }
+
+    @Benchmark
+    public TMDB_Parser.DiscoverPage discoverFirstEligible() throws IOException {
+        return Parse(discoverBytes, TMDB_Parser.DiscoverPage(NONE_SEEN));
+    }
+
+    @Benchmark
+    public TMDB_Parser.DiscoverPage discoverAllSeen() throws IOException {
+        return Parse(discoverBytes, TMDB_Parser.DiscoverPage(ALL_SEEN));
+    }
+
+    @Benchmark
+    public TMDB_Parser.DiscoverPage discoverAllSeenFromString() throws IOException {
+        try(JsonReader reader = new JsonReader(new StringReader(discoverString))){
+            return TMDB_Parser.DiscoverPage(ALL_SEEN).Parse(reader);
+        }
+    }
+
+    @Benchmark
+    public ArrayList<TMDB_Parser.DiscoverMovie> discoverMovies() throws IOException {
+        return Parse(discoverBytes, TMDB_Parser.DiscoverMovies());
+    }
+
+    @Benchmark
+    public Movie movieDetails() throws IOException {
+        return Parse(movieBytes, TMDB_Parser.MovieDetails("475557"));
+    }
+
+    @Benchmark
+    public Movie movieDetailsFromString() throws IOException {
+        try(JsonReader reader = new JsonReader(new StringReader(movieString))){
+            return TMDB_Parser.MovieDetails("475557").Parse(reader);
+        }
+    }
+
+    @Benchmark
+    public String readBody() {
+        // The decoding a response went through before the streaming parsers
+        return new String(discoverBytes, Fixtures.UTF_8);
+    }
+
+    private static <T> T Parse(byte[] body, TMDB_Parser.Parser<T> parser) throws IOException {
+        try(JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), Fixtures.UTF_8))){
+            return parser.Parse(reader);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.movieroulette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the URLs of the requests and the keys of the HTTP cache, done for every request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlBenchmark {
+
+    private static final String API_KEY = "0123456789abcdef0123456789abcdef";
+
+    private final String discoverURL = TMDB_Urls.Discover(API_KEY, 2019, 878);
+    private int page = 0;
+
+    @Benchmark
+    public String discoverUrl() {
+        return TMDB_Urls.Discover(API_KEY, 2019, 878);
+    }
+
+    @Benchmark
+    public String pageUrl() {
+        page = page % 500 + 1;
+        return TMDB_Urls.Page(discoverURL, page);
+    }
+
+    @Benchmark
+    public String movieDetailsUrl() {
+        return TMDB_Urls.MovieDetails(API_KEY, "475557");
+    }
+
+    @Benchmark
+    public String cacheKey() {
+        return HttpCache.NormalizeKey(TMDB_Urls.Page(discoverURL, 7));
+    }
+}
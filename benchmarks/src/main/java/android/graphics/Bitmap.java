@@ -0,0 +1,7 @@
+package android.graphics;
+
+/**
+ * Shim of android.graphics.Bitmap, only referenced by the fields of Movie.
+ */
+public final class Bitmap {
+}
@@ -0,0 +1,56 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Shim of android.util.JsonReader for running the parsers of the app on a plain JVM.
+ * android.util.JsonReader was forked from Gson's JsonReader, so the calls are passed to Gson's
+ * with the same behavior.
+ */
+public final class JsonReader implements Closeable {
+
+    private final com.google.gson.stream.JsonReader reader;
+
+    public JsonReader(Reader in){
+        reader = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void setLenient(boolean lenient) { reader.setLenient(lenient); }
+
+    public boolean isLenient() { return reader.isLenient(); }
+
+    public void beginArray() throws IOException { reader.beginArray(); }
+
+    public void endArray() throws IOException { reader.endArray(); }
+
+    public void beginObject() throws IOException { reader.beginObject(); }
+
+    public void endObject() throws IOException { reader.endObject(); }
+
+    public boolean hasNext() throws IOException { return reader.hasNext(); }
+
+    public JsonToken peek() throws IOException {
+        return JsonToken.valueOf(reader.peek().name());
+    }
+
+    public String nextName() throws IOException { return reader.nextName(); }
+
+    public String nextString() throws IOException { return reader.nextString(); }
+
+    public boolean nextBoolean() throws IOException { return reader.nextBoolean(); }
+
+    public void nextNull() throws IOException { reader.nextNull(); }
+
+    public double nextDouble() throws IOException { return reader.nextDouble(); }
+
+    public long nextLong() throws IOException { return reader.nextLong(); }
+
+    public int nextInt() throws IOException { return reader.nextInt(); }
+
+    public void skipValue() throws IOException { reader.skipValue(); }
+
+    @Override
+    public void close() throws IOException { reader.close(); }
+}
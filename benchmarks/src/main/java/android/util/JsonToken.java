@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * Shim of android.util.JsonToken for running the parsers of the app on a plain JVM.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
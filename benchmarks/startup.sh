@@ -0,0 +1,33 @@
+#!/bin/sh
+# Cold start benchmark of the app on the connected device.
+# The app is force stopped before every launch, so each launch starts a new process, and the time
+# to the first frame of MainActivity (TotalTime of "am start -W") is reported.
+#   benchmarks/startup.sh [runs]
+# Install the build to measure first, e.g. ./gradlew installRelease
+
+RUNS=${1:-10}
+PACKAGE=com.example.movieroulette
+ACTIVITY=$PACKAGE/.MainActivity
+
+times=""
+i=0
+while [ $i -lt $RUNS ]; do
+    # Dropping the disk caches needs root, without it the runs measure a warm disk
+    adb shell "echo 3 > /proc/sys/vm/drop_caches" >/dev/null 2>&1
+    total=$(adb shell am start-activity -S -W -n $ACTIVITY | tr -d '\r' | sed -n 's/^TotalTime: //p')
+    if [ -z "$total" ]; then
+        echo "Launch failed" >&2
+        exit 1
+    fi
+    echo "run $((i + 1)): ${total}ms"
+    times="$times $total"
+    i=$((i + 1))
+    sleep 2
+done
+
+echo $times | tr ' ' '\n' | sort -n | awk '
+    { t[NR] = $1; sum += $1 }
+    END {
+        median = NR % 2 ? t[(NR + 1) / 2] : (t[NR / 2] + t[NR / 2 + 1]) / 2
+        printf "cold start to first frame over %d runs: min=%dms median=%dms max=%dms mean=%dms\n", NR, t[1], median, t[NR], sum / NR
+    }'